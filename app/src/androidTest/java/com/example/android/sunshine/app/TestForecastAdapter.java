@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.MatrixCursor;
+import android.preference.PreferenceManager;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TestForecastAdapter extends AndroidTestCase {
+    private static final String LOG_TAG = TestForecastAdapter.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+    private static final int BENCHMARK_PASSES = 200;
+
+    // Same columns, in the same order, as ForecastFragment's projection
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    private MatrixCursor createForecastCursor() {
+        return createForecastCursor(0, FORECAST_DAYS, -1);
+    }
+
+    /*
+        The days from firstDay on, counting from today, with the high of warmerDay (if any)
+        changed.
+     */
+    private MatrixCursor createForecastCursor(int firstDay, int days, int warmerDay) {
+        MatrixCursor cursor = new MatrixCursor(FORECAST_COLUMNS, days);
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int i = firstDay; i < firstDay + days; i++) {
+            double high = i == warmerDay ? 40.0 : 20.0 + i;
+            cursor.addRow(new Object[]{i + 1, today + i * DateUtils.DAY_IN_MILLIS, "Clear",
+                    high, 10.0 + i, "99705", 800 + i % 5});
+        }
+        return cursor;
+    }
+
+    private String forceLocalArt() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String artPackKey = mContext.getString(R.string.pref_art_pack_key);
+        String artPack = prefs.getString(artPackKey, null);
+        // with the local art the adapter doesn't use Glide, which needs the main thread
+        setArtPack(mContext.getString(R.string.pref_art_pack_sunshine));
+        return artPack;
+    }
+
+    private void restoreArt(String artPack) {
+        setArtPack(artPack);
+    }
+
+    private void setArtPack(final String artPack) {
+        final String sunshineArtPack = mContext.getString(R.string.pref_art_pack_sunshine);
+        // the snapshot only listens to the preferences once it has been read
+        SettingsSnapshot.get(mContext);
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putString(mContext.getString(R.string.pref_art_pack_key), artPack).commit();
+        // written off the main thread, so the snapshot's listener sees it later, on that thread
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return SettingsSnapshot.get(mContext).artPack
+                        .equals(artPack != null ? artPack : sunshineArtPack);
+            }
+        }.run();
+    }
+
+    /*
+        Records the events an adapter sends, in the order they are sent.
+     */
+    static class RecordingObserver extends RecyclerView.AdapterDataObserver {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onChanged() {
+            events.add("changed");
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount) {
+            events.add("changed " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            events.add("inserted " + positionStart + "+" + itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            events.add("removed " + positionStart + "+" + itemCount);
+        }
+    }
+
+    /*
+        A sync the next day drops the first day, adds one at the end and changes another.  Only
+        those three rows should be notified, and the selected day should stay selected.
+     */
+    public void testSwapCursorNotifiesOnlyChanges() {
+        Context context = new ContextThemeWrapper(mContext, R.style.AppTheme);
+        String artPack = forceLocalArt();
+        try {
+            RecyclerView recyclerView = new RecyclerView(context);
+            recyclerView.setLayoutManager(new LinearLayoutManager(context));
+            ForecastAdapter adapter = new ForecastAdapter(context,
+                    new ForecastAdapter.ForecastAdapterOnClickHandler() {
+                        @Override
+                        public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
+                        }
+                    }, new View(context), AbsListView.CHOICE_MODE_SINGLE);
+            adapter.setUseTodayLayout(false);
+            recyclerView.setAdapter(adapter);
+            adapter.swapCursor(createForecastCursor());
+
+            recyclerView.measure(
+                    View.MeasureSpec.makeMeasureSpec(480, View.MeasureSpec.EXACTLY),
+                    View.MeasureSpec.makeMeasureSpec(4000, View.MeasureSpec.EXACTLY));
+            recyclerView.layout(0, 0, 480, 4000);
+            RecyclerView.ViewHolder vh = recyclerView.findViewHolderForAdapterPosition(5);
+            assertNotNull("Error: the sixth day wasn't laid out", vh);
+            long selectedId = adapter.getItemId(5);
+            adapter.selectView(vh);
+            assertEquals(5, adapter.getSelectedItemPosition());
+
+            RecordingObserver observer = new RecordingObserver();
+            adapter.registerAdapterDataObserver(observer);
+            adapter.swapCursor(createForecastCursor(1, FORECAST_DAYS, 3));
+            adapter.unregisterAdapterDataObserver(observer);
+
+            assertEquals(Arrays.asList("removed 0+1", "changed 2+1",
+                    "inserted " + (FORECAST_DAYS - 1) + "+1"), observer.events);
+            assertEquals("Error: the selection didn't follow its day",
+                    4, adapter.getSelectedItemPosition());
+            assertEquals(selectedId, adapter.getItemId(4));
+        } finally {
+            restoreArt(artPack);
+        }
+    }
+
+    /*
+        Binds every row of a two week forecast over and over, and formats the same cursor into
+        ForecastItems as often, logging the cost per row of each.  Binding only copies the
+        strings formatted at load time into the views, so its figure is the one to watch when
+        the list starts to stutter.  The first bind is checked against Utility; the timings
+        themselves are only logged.
+     */
+    @LargeTest
+    public void testBindCostPerRow() {
+        Context context = new ContextThemeWrapper(mContext, R.style.AppTheme);
+        String artPack = forceLocalArt();
+        try {
+            MatrixCursor cursor = createForecastCursor();
+            RecyclerView recyclerView = new RecyclerView(context);
+            recyclerView.setLayoutManager(new LinearLayoutManager(context));
+            ForecastAdapter adapter = new ForecastAdapter(context,
+                    new ForecastAdapter.ForecastAdapterOnClickHandler() {
+                        @Override
+                        public void onClick(Long date, ForecastAdapter.ForecastAdapterViewHolder vh) {
+                        }
+                    }, new View(context), AbsListView.CHOICE_MODE_NONE);
+            adapter.setUseTodayLayout(false);
+            adapter.swapCursor(cursor);
+            assertEquals(FORECAST_DAYS, adapter.getItemCount());
+
+            ForecastAdapter.ForecastAdapterViewHolder vh =
+                    adapter.onCreateViewHolder(recyclerView, adapter.getItemViewType(0));
+            adapter.onBindViewHolder(vh, 0);
+            cursor.moveToFirst();
+            assertEquals(Utility.getFriendlyDayString(context, cursor.getLong(1), false),
+                    vh.mDateView.getText().toString());
+
+            long start = System.nanoTime();
+            for (int pass = 0; pass < BENCHMARK_PASSES; pass++) {
+                for (int position = 0; position < FORECAST_DAYS; position++) {
+                    adapter.onBindViewHolder(vh, position);
+                }
+            }
+            long bindNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int pass = 0; pass < BENCHMARK_PASSES; pass++) {
+                ForecastItem.fromCursor(context, cursor);
+            }
+            long formatNanos = System.nanoTime() - start;
+
+            int rows = BENCHMARK_PASSES * FORECAST_DAYS;
+            Log.d(LOG_TAG, "bind: " + bindNanos / rows + " ns/row, format: " +
+                    formatNanos / rows + " ns/row");
+        } finally {
+            restoreArt(artPack);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+public class TestUtility extends AndroidTestCase {
+    private static final String LOG_TAG = TestUtility.class.getSimpleName();
+
+    private static final int FORECAST_DAYS = 14;
+    private static final int BENCHMARK_PASSES = 200;
+
+    /*
+        The date labels as Utility formatted them before DayLabels, kept here to check the cached
+        labels against and to benchmark them.
+     */
+    private static String formatFriendlyDayString(Context context, long dateInMillis,
+                                                  boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        long currentTime = System.currentTimeMillis();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+
+        if (displayLongToday && julianDay == currentJulianDay) {
+            return context.getString(R.string.format_full_friendly_date,
+                    context.getString(R.string.today),
+                    formatMonthDay(dateInMillis));
+        } else if (julianDay < currentJulianDay + 7) {
+            return formatDayName(context, dateInMillis);
+        } else {
+            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+            return shortenedDateFormat.format(dateInMillis);
+        }
+    }
+
+    private static String formatFullFriendlyDayString(Context context, long dateInMillis) {
+        return context.getString(R.string.format_full_friendly_date,
+                formatDayName(context, dateInMillis), formatMonthDay(dateInMillis));
+    }
+
+    private static String formatDayName(Context context, long dateInMillis) {
+        Time t = new Time();
+        t.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if (julianDay == currentJulianDay + 1) {
+            return context.getString(R.string.tomorrow);
+        } else {
+            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
+            return dayFormat.format(dateInMillis);
+        }
+    }
+
+    private static String formatMonthDay(long dateInMillis) {
+        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
+        return monthDayFormat.format(dateInMillis);
+    }
+
+    private long[] getForecastDates() {
+        // from yesterday on, which the list can still show right after midnight
+        long[] dates = new long[FORECAST_DAYS];
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int i = 0; i < FORECAST_DAYS; i++) {
+            dates[i] = today + (i - 1) * DateUtils.DAY_IN_MILLIS;
+        }
+        return dates;
+    }
+
+    public void testDayLabels() {
+        TimeZone timeZone = TimeZone.getDefault();
+        int offset = timeZone.getOffset(System.currentTimeMillis());
+        for (long date : getForecastDates()) {
+            if (timeZone.getOffset(date) != offset) {
+                // past a daylight saving change the old labels could be off by a day
+                continue;
+            }
+            assertEquals(formatFriendlyDayString(mContext, date, false),
+                    Utility.getFriendlyDayString(mContext, date, false));
+            assertEquals(formatFriendlyDayString(mContext, date, true),
+                    Utility.getFriendlyDayString(mContext, date, true));
+            assertEquals(formatFullFriendlyDayString(mContext, date),
+                    Utility.getFullFriendlyDayString(mContext, date));
+            assertEquals(formatDayName(mContext, date), Utility.getDayName(mContext, date));
+            assertEquals(formatMonthDay(date), Utility.getFormattedMonthDay(mContext, date));
+        }
+    }
+
+    public void testDayLabelsAfterInvalidate() {
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        String label = Utility.getFriendlyDayString(mContext, today, true);
+        DayLabels.getInstance(mContext).invalidate();
+        assertEquals(label, Utility.getFriendlyDayString(mContext, today, true));
+    }
+
+    /*
+        Logs what a label for each of the list's two weeks costs once DayLabels holds it,
+        next to formatting the same label the way Utility did before the cache.  The gap
+        between the two is what the cache saves per row on every scroll; the numbers are left
+        in the log rather than compared, as they swing too much between devices.
+     */
+    @LargeTest
+    public void testCachedLabelCost() {
+        long[] dates = getForecastDates();
+        // fill the cache, so only lookups are timed
+        for (long date : dates) {
+            Utility.getFriendlyDayString(mContext, date, false);
+        }
+
+        long start = System.nanoTime();
+        for (int pass = 0; pass < BENCHMARK_PASSES; pass++) {
+            for (long date : dates) {
+                Utility.getFriendlyDayString(mContext, date, false);
+            }
+        }
+        long cachedNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int pass = 0; pass < BENCHMARK_PASSES; pass++) {
+            for (long date : dates) {
+                formatFriendlyDayString(mContext, date, false);
+            }
+        }
+        long formatNanos = System.nanoTime() - start;
+
+        int labels = BENCHMARK_PASSES * dates.length;
+        Log.d(LOG_TAG, "cached: " + cachedNanos / labels + " ns/label, format: " +
+                formatNanos / labels + " ns/label");
+    }
+}
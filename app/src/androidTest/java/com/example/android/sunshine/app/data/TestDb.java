@@ -17,6 +17,7 @@ package com.example.android.sunshine.app.data;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
@@ -55,6 +56,7 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.SyncMetricsEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -234,4 +236,161 @@ public class TestDb extends AndroidTestCase {
         db.close();
         return locationRowId;
     }
+
+    // Readers must not block behind the sync's write transaction, which needs the
+    // write-ahead log.
+    public void testWriteAheadLogging() {
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        Cursor c = db.rawQuery("PRAGMA journal_mode", null);
+        assertTrue(c.moveToFirst());
+        assertEquals("Error: the database is not in write-ahead logging mode",
+                "wal", c.getString(0).toLowerCase());
+        c.close();
+
+        // and checkpointing an idle log must be harmless
+        dbHelper.checkpoint();
+        dbHelper.close();
+    }
+
+    /*
+        The provider's weather queries join location and weather and filter on location_setting,
+        optionally with a date.  Check with EXPLAIN QUERY PLAN that none of them has to scan
+        either table.
+     */
+    public void testQueryPlansUseIndexes() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        final String join = WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+                WeatherContract.LocationEntry.TABLE_NAME + " ON " +
+                WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+                " = " + WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID;
+        final String locationSetting = WeatherContract.LocationEntry.TABLE_NAME + "." +
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+        final String date = WeatherContract.WeatherEntry.COLUMN_DATE;
+
+        assertIndexedPlan(db, join, locationSetting,
+                new String[]{TestUtilities.TEST_LOCATION});
+        assertIndexedPlan(db, join, locationSetting + " AND " + date + " >= ?",
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+        assertIndexedPlan(db, join, locationSetting + " AND " + date + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+
+        // the provider's join-free reads, by the weather table's own copy of the setting
+        final String weatherSetting = WeatherContract.WeatherEntry.TABLE_NAME + "." +
+                WeatherContract.WeatherEntry.COLUMN_LOCATION_SETTING + " = ?";
+        assertIndexedPlan(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                weatherSetting + " AND " + date + " >= ?",
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+        assertIndexedPlan(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                weatherSetting + " AND " + date + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+        db.close();
+    }
+
+    /*
+        The weather rows' copy of the location setting has to follow the location table, whoever
+        writes the rows.
+     */
+    public void testLocationSettingCopy() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+
+        long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue("Error: Failure to insert North Pole Location Values", locationRowId != -1);
+        long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                TestUtilities.createWeatherValues(locationRowId));
+        assertTrue("Error: Failure to insert Weather Values", weatherRowId != -1);
+        assertEquals("Error: the insert did not copy the location setting",
+                TestUtilities.TEST_LOCATION, queryWeatherLocationSetting(db, weatherRowId));
+
+        ContentValues renamed = new ContentValues();
+        renamed.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        db.update(WeatherContract.LocationEntry.TABLE_NAME, renamed,
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationRowId)});
+        assertEquals("Error: the location update did not reach the weather rows",
+                "94043", queryWeatherLocationSetting(db, weatherRowId));
+        db.close();
+    }
+
+    private String queryWeatherLocationSetting(SQLiteDatabase db, long weatherRowId) {
+        Cursor c = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.WeatherEntry._ID + " = ?",
+                new String[]{Long.toString(weatherRowId)}, null, null, null);
+        assertTrue("Error: No Records returned from weather query", c.moveToFirst());
+        String setting = c.getString(0);
+        c.close();
+        return setting;
+    }
+
+    private void assertIndexedPlan(SQLiteDatabase db, String tables, String selection,
+                                   String[] selectionArgs) {
+        Cursor c = db.rawQuery("EXPLAIN QUERY PLAN SELECT * FROM " + tables + " WHERE " + selection,
+                selectionArgs);
+        int detailIndex = c.getColumnIndex("detail");
+        boolean usesWeatherIndex = false;
+        while (c.moveToNext()) {
+            String detail = c.getString(detailIndex);
+            assertFalse("Error: full table scan for \"" + selection + "\": " + detail,
+                    detail.contains("SCAN") && !detail.contains("INDEX"));
+            usesWeatherIndex |= detail.contains(WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE)
+                    || detail.contains(WeatherDbHelper.INDEX_WEATHER_SETTING_DATE)
+                    || detail.contains("sqlite_autoindex_weather");
+        }
+        c.close();
+        assertTrue("Error: no weather index used for \"" + selection + "\"", usesWeatherIndex);
+    }
+
+    /*
+        Upgrading from an older schema must keep the stored forecast and bring the schema up to
+        date, instead of dropping everything until the next sync.
+     */
+    public void testUpgradeKeepsData() {
+        // build a version 2 database by hand, as the app shipped it
+        SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME, 0, null);
+        db.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY, location_setting TEXT UNIQUE NOT NULL, " +
+                "city_name TEXT NOT NULL, coord_lat REAL NOT NULL, coord_long REAL NOT NULL);");
+        db.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                "location_id INTEGER NOT NULL, date INTEGER NOT NULL, short_desc TEXT NOT NULL, " +
+                "weather_id INTEGER NOT NULL, min REAL NOT NULL, max REAL NOT NULL, " +
+                "humidity REAL NOT NULL, pressure REAL NOT NULL, wind REAL NOT NULL, " +
+                "degrees REAL NOT NULL, " +
+                "FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                "UNIQUE (date, location_id) ON CONFLICT REPLACE);");
+        long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        assertTrue(db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        db.setVersion(2);
+        db.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        db = dbHelper.getWritableDatabase();
+
+        Cursor c = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        TestUtilities.validateCursor("Error: the upgrade lost the stored weather", c, weatherValues);
+
+        c = db.rawQuery("PRAGMA table_info(" + WeatherContract.WeatherEntry.TABLE_NAME + ")", null);
+        HashSet<String> columns = new HashSet<String>();
+        while (c.moveToNext()) {
+            columns.add(c.getString(c.getColumnIndex("name")));
+        }
+        c.close();
+        assertTrue("Error: the upgrade did not add the content hash column",
+                columns.contains(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH));
+
+        c = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name = ?",
+                new String[]{WeatherDbHelper.INDEX_WEATHER_LOCATION_DATE});
+        assertTrue("Error: the upgrade did not add the weather index", c.moveToFirst());
+        c.close();
+
+        assertEquals("Error: the upgrade did not copy the location setting into the weather rows",
+                1, DatabaseUtils.queryNumEntries(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                        WeatherContract.WeatherEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[]{TestUtilities.TEST_LOCATION}));
+        dbHelper.close();
+    }
 }
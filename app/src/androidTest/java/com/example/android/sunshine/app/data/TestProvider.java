@@ -16,6 +16,8 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.pm.PackageManager;
@@ -24,10 +26,24 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.Bundle;
 import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.format.DateUtils;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.ProviderStatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /*
@@ -197,6 +213,30 @@ public class TestProvider extends AndroidTestCase {
         TestUtilities.validateCursor("testBasicWeatherQuery", weatherCursor, weatherValues);
     }
 
+    public void testJoinWithoutProjection() {
+        long locationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        int locationSettings = 0;
+        for (String column : cursor.getColumnNames()) {
+            if (WeatherEntry.COLUMN_LOCATION_SETTING.equals(column)) {
+                locationSettings++;
+            }
+        }
+        assertEquals("Error: the join returned the location setting more than once",
+                1, locationSettings);
+        assertEquals(TestUtilities.TEST_LOCATION, cursor.getString(
+                cursor.getColumnIndex(WeatherEntry.COLUMN_LOCATION_SETTING)));
+        assertEquals("North Pole", cursor.getString(
+                cursor.getColumnIndex(LocationEntry.COLUMN_CITY_NAME)));
+        cursor.close();
+    }
+
     /*
         This test uses the database directly to insert and then uses the ContentProvider to
         read out the data.  Uncomment this test to see if your location queries are
@@ -512,4 +552,381 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // Upserting the same forecast twice must not write anything the second time, and a changed
+    // day must be updated in place so that it keeps its _ID.
+    public void testUpsert() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        Uri upsertUri = WeatherEntry.buildWeatherUpsertUri();
+        int written = mContext.getContentResolver().bulkInsert(upsertUri,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, written);
+
+        long[] ids = new long[BULK_INSERT_RECORDS_TO_INSERT];
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
+        }
+        cursor.close();
+
+        written = mContext.getContentResolver().bulkInsert(upsertUri,
+                createBulkInsertWeatherValues(locationRowId));
+        assertEquals("Error: an unchanged forecast was written again", 0, written);
+
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        Uri rowUri = mContext.getContentResolver().insert(upsertUri, changedValues[3]);
+        assertEquals(WeatherEntry.UPSERT_UPDATED, WeatherEntry.getUpsertResultFromUri(rowUri));
+        assertEquals("Error: an updated row changed its _ID", ids[3], ContentUris.parseId(rowUri));
+
+        rowUri = mContext.getContentResolver().insert(upsertUri, changedValues[4]);
+        assertEquals(WeatherEntry.UPSERT_UNCHANGED, WeatherEntry.getUpsertResultFromUri(rowUri));
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID, WeatherEntry.COLUMN_MAX_TEMP}, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        for (int i = 0; cursor.moveToNext(); i++) {
+            assertEquals("Error: upsert changed the _ID of row " + i, ids[i], cursor.getLong(0));
+        }
+        cursor.moveToPosition(3);
+        assertEquals(99, cursor.getInt(1));
+        cursor.close();
+    }
+
+    static private final int BENCHMARK_LOCATIONS = 4;
+    static private final int BENCHMARK_SMALL_BATCH = 250;
+    static private final int BENCHMARK_LARGE_BATCH = 5000;
+
+    static ContentValues[] createBenchmarkWeatherValues(long[] locationRowIds, int count) {
+        long millisecondsInADay = 1000*60*60*24;
+        ContentValues[] returnContentValues = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            ContentValues weatherValues = createBulkInsertWeatherValues(
+                    locationRowIds[i % locationRowIds.length])[0];
+            // spread the rows over days so that none of them replaces another
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + (i / locationRowIds.length) * millisecondsInADay);
+            returnContentValues[i] = weatherValues;
+        }
+        return returnContentValues;
+    }
+
+    private long timeBulkInsert(ContentValues[] values) {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        long start = System.nanoTime();
+        int insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        long elapsed = System.nanoTime() - start;
+        assertEquals(values.length, insertCount);
+        return elapsed;
+    }
+
+    /*
+        The by-location queries that everybody issues right after a sync are served from the
+        provider's cache, and a write to the location drops what it cached.
+     */
+    public void testQueryCache() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        Uri forecastUri = WeatherEntry.buildWeatherLocationWithStartDate(
+                TestUtilities.TEST_LOCATION, TestUtilities.TEST_DATE);
+        String[] projection = {WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP};
+        Bundle before = getCacheStats();
+
+        Cursor cursor = mContext.getContentResolver().query(forecastUri, projection, null, null, null);
+        assertEquals(1, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(forecastUri, projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(weatherValues.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP), cursor.getDouble(1));
+        cursor.close();
+
+        Bundle after = getCacheStats();
+        assertEquals("Error: the first query was not a miss", 1,
+                after.getLong(WeatherContract.KEY_CACHE_MISSES) - before.getLong(WeatherContract.KEY_CACHE_MISSES));
+        assertEquals("Error: the repeated query was not served from the cache", 1,
+                after.getLong(WeatherContract.KEY_CACHE_HITS) - before.getLong(WeatherContract.KEY_CACHE_HITS));
+
+        ContentValues changedValues = new ContentValues();
+        changedValues.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, changedValues,
+                WeatherEntry.COLUMN_LOC_KEY + " = ?", new String[]{Long.toString(locationRowId)});
+
+        cursor = mContext.getContentResolver().query(forecastUri, projection, null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the cache served rows from before the update", 99, cursor.getInt(1));
+        cursor.close();
+        assertEquals("Error: the query after the update was not a miss",
+                after.getLong(WeatherContract.KEY_CACHE_MISSES) + 1,
+                getCacheStats().getLong(WeatherContract.KEY_CACHE_MISSES));
+    }
+
+    /*
+        A write notifies the weather URIs of the location and day it touched, so observers of
+        other locations and days stay quiet.
+     */
+    public void testScopedNotifications() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        long today = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION, today),
+                true, dayObserver);
+        TestUtilities.TestContentObserver otherDayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        today + DateUtils.DAY_IN_MILLIS),
+                true, otherDayObserver);
+        TestUtilities.TestContentObserver otherLocationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("94043"), true, otherLocationObserver);
+
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI,
+                TestUtilities.createWeatherValues(locationRowId));
+
+        dayObserver.waitForNotificationOrFail();
+        otherDayObserver.assertNoNotification("Error: another day of the location was notified",
+                1000);
+        otherLocationObserver.assertNoNotification("Error: another location was notified", 1000);
+
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherDayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+        otherDayObserver.mHT.quit();
+        otherLocationObserver.mHT.quit();
+    }
+
+    private Bundle getCacheStats() {
+        return mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_GET_CACHE_STATS, null, null);
+    }
+
+    // Logs the cost per row of a small and a large bulkInsert spread over a few locations.  With
+    // the precompiled insert the two figures should stay close; a large batch costing much
+    // more per row points at a per-row lookup or a statement compiled inside the loop.  Only
+    // the insert counts are checked, the timings are for reading off the log.
+    @LargeTest
+    public void testBulkInsertCostPerRow() {
+        long[] locationRowIds = new long[BENCHMARK_LOCATIONS];
+        for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+            ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, TestUtilities.TEST_LOCATION + i);
+            locationRowIds[i] = ContentUris.parseId(
+                    mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues));
+        }
+
+        ContentValues[] small = createBenchmarkWeatherValues(locationRowIds, BENCHMARK_SMALL_BATCH);
+        ContentValues[] large = createBenchmarkWeatherValues(locationRowIds, BENCHMARK_LARGE_BATCH);
+
+        // warm up the provider, the database connection and the JIT
+        timeBulkInsert(small);
+
+        long smallNanos = timeBulkInsert(small);
+        long largeNanos = timeBulkInsert(large);
+        long smallPerRow = smallNanos / BENCHMARK_SMALL_BATCH;
+        long largePerRow = largeNanos / BENCHMARK_LARGE_BATCH;
+        Log.d(LOG_TAG, "bulkInsert " + BENCHMARK_SMALL_BATCH + " rows: " + smallPerRow + " ns/row, "
+                + BENCHMARK_LARGE_BATCH + " rows: " + largePerRow + " ns/row");
+    }
+
+    // Queries from the UI and widgets run while the sync adapter writes.  Hold a write
+    // transaction open on a connection of our own, part way through inserting a batch, and make
+    // sure a query through the provider answers without waiting for it and sees the rows as
+    // they were before the transaction began.
+    public void testReadersDuringBulkWrite() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = ContentUris.parseId(
+                mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues));
+        ContentValues[] values = createBenchmarkWeatherValues(new long[]{locationRowId},
+                BENCHMARK_SMALL_BATCH * 2);
+        ContentValues[] committed = Arrays.copyOfRange(values, 0, BENCHMARK_SMALL_BATCH);
+        ContentValues[] pending = Arrays.copyOfRange(values, BENCHMARK_SMALL_BATCH, values.length);
+        assertEquals(committed.length,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, committed));
+
+        ExecutorService reader = Executors.newSingleThreadExecutor();
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : pending) {
+                assertTrue(db.insert(WeatherEntry.TABLE_NAME, null, value) != -1);
+            }
+
+            Future<Integer> count = reader.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    Cursor cursor = mContext.getContentResolver().query(
+                            WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                            null, null, null, null);
+                    try {
+                        return cursor.getCount();
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            });
+            try {
+                assertEquals("Error: a read during the write saw uncommitted rows",
+                        committed.length, count.get(5, TimeUnit.SECONDS).intValue());
+            } catch (TimeoutException e) {
+                fail("Error: a read waited for the open write transaction");
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            db.close();
+            reader.shutdownNow();
+        }
+    }
+
+    // The sync adapter writes a location, its forecast and the pruning of old days as a single
+    // batch.  Make sure the back reference to the new location resolves and that the batch
+    // lands as a whole.
+    public void testApplyBatch() throws Exception {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(0);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(locationValues)
+                .build());
+        for (ContentValues values : weatherValues) {
+            values.remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        // prune the first day, as the sync adapter prunes yesterday
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE)})
+                .build());
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+
+        ContentProviderResult[] results = mContext.getContentResolver()
+                .applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(operations.size(), results.length);
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        assertTrue(locationRowId != -1);
+        assertEquals("Error: the batch did not prune the oldest day", 1, (int) results[results.length - 1].count);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 1; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext()) {
+            weatherValues[i].put(WeatherEntry.COLUMN_LOC_KEY, locationRowId);
+            // dates come back normalized, the order above already checks them
+            weatherValues[i].remove(WeatherEntry.COLUMN_DATE);
+            TestUtilities.validateCurrentRecord("testApplyBatch.  Error validating WeatherEntry " + i,
+                    cursor, weatherValues[i]);
+        }
+        cursor.close();
+    }
+
+    public void testSyncMetricsRing() {
+        mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+
+        int extra = 5;
+        for (int i = 0; i < SyncMetricsEntry.MAX_ROWS + extra; i++) {
+            ContentValues values = new ContentValues();
+            values.put(SyncMetricsEntry.COLUMN_START_TIME, TestUtilities.TEST_DATE + i);
+            values.put(SyncMetricsEntry.COLUMN_LOCATION_SETTING, TestUtilities.TEST_LOCATION);
+            values.put(SyncMetricsEntry.COLUMN_OUTCOME, SyncMetricsEntry.OUTCOME_UPDATED);
+            values.put(SyncMetricsEntry.COLUMN_TOTAL_US, 1000 + i);
+            Uri uri = mContext.getContentResolver().insert(SyncMetricsEntry.CONTENT_URI, values);
+            assertTrue(ContentUris.parseId(uri) != -1);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(SyncMetricsEntry.CONTENT_URI,
+                new String[]{SyncMetricsEntry.COLUMN_START_TIME, SyncMetricsEntry.COLUMN_WRITE_US},
+                null, null, SyncMetricsEntry.COLUMN_START_TIME + " ASC");
+        assertEquals("Error: the metrics table grew past its bound",
+                SyncMetricsEntry.MAX_ROWS, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the oldest records were not the ones dropped",
+                TestUtilities.TEST_DATE + extra, cursor.getLong(0));
+        assertEquals("Error: an unset phase was not stored as zero", 0, cursor.getLong(1));
+        cursor.close();
+
+        int deleted = mContext.getContentResolver().delete(SyncMetricsEntry.CONTENT_URI, null, null);
+        assertEquals(SyncMetricsEntry.MAX_ROWS, deleted);
+    }
+
+    public void testProviderStats() {
+        // the deletes of setUp were counted
+        assertTrue(mContext.getContentResolver()
+                .delete(ProviderStatsEntry.CONTENT_URI, null, null) > 0);
+
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        Uri muzeiUri = ProviderStatsEntry.withCaller(LocationEntry.CONTENT_URI,
+                ProviderStatsEntry.CALLER_MUZEI);
+        int queries = 3;
+        for (int i = 0; i < queries; i++) {
+            Cursor cursor = mContext.getContentResolver().query(muzeiUri, null, null, null, null);
+            assertEquals("Error: the caller tag changed what the query returned",
+                    1, cursor.getCount());
+            cursor.close();
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(ProviderStatsEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: expected one row for the insert and one for the queries",
+                2, cursor.getCount());
+        boolean sawQueries = false;
+        while (cursor.moveToNext()) {
+            assertEquals(WeatherProvider.LOCATION,
+                    cursor.getInt(cursor.getColumnIndex(ProviderStatsEntry.COLUMN_MATCH_CODE)));
+            String caller =
+                    cursor.getString(cursor.getColumnIndex(ProviderStatsEntry.COLUMN_CALLER));
+            long calls = cursor.getLong(cursor.getColumnIndex(ProviderStatsEntry.COLUMN_CALLS));
+            long histogramCalls = 0;
+            for (int column = cursor.getColumnIndex(ProviderStatsEntry.COLUMN_UNDER_250US);
+                 column <= cursor.getColumnIndex(ProviderStatsEntry.COLUMN_OVER_256MS); column++) {
+                histogramCalls += cursor.getLong(column);
+            }
+            assertEquals("Error: the histogram doesn't add up to the calls", calls, histogramCalls);
+            String operation =
+                    cursor.getString(cursor.getColumnIndex(ProviderStatsEntry.COLUMN_OPERATION));
+            if (ProviderStatsEntry.OPERATION_QUERY.equals(operation)) {
+                sawQueries = true;
+                assertEquals(ProviderStatsEntry.CALLER_MUZEI, caller);
+                assertEquals(queries, calls);
+                assertEquals("Error: the rows the queries returned were not counted", queries,
+                        cursor.getLong(cursor.getColumnIndex(ProviderStatsEntry.COLUMN_ROWS)));
+            } else {
+                assertEquals(ProviderStatsEntry.OPERATION_INSERT, operation);
+                assertEquals("Error: an untagged call wasn't counted as the app's",
+                        ProviderStatsEntry.CALLER_APP, caller);
+                assertEquals(1, calls);
+            }
+        }
+        cursor.close();
+        assertTrue("Error: the queries were not counted", sawQueries);
+    }
 }
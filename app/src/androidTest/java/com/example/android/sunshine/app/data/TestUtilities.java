@@ -23,6 +23,7 @@ import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 
 import com.example.android.sunshine.app.utils.PollingCheck;
@@ -121,7 +122,7 @@ public class TestUtilities extends AndroidTestCase {
      */
     static class TestContentObserver extends ContentObserver {
         final HandlerThread mHT;
-        boolean mContentChanged;
+        volatile boolean mContentChanged;
 
         static TestContentObserver getTestContentObserver() {
             HandlerThread ht = new HandlerThread("ContentObserverThread");
@@ -158,6 +159,19 @@ public class TestUtilities extends AndroidTestCase {
             }.run();
             mHT.quit();
         }
+
+        /**
+         * Fails if a notification arrives within timeoutMillis.  Notifications are delivered
+         * through the system asynchronously, so one that was sent along with another observer's
+         * may land after that observer has already been told.
+         */
+        public void assertNoNotification(String message, long timeoutMillis) {
+            long deadline = SystemClock.uptimeMillis() + timeoutMillis;
+            while (!mContentChanged && SystemClock.uptimeMillis() < deadline) {
+                SystemClock.sleep(50);
+            }
+            assertFalse(message, mContentChanged);
+        }
     }
 
     static TestContentObserver getTestContentObserver() {
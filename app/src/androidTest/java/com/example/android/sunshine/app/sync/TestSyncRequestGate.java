@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncRequestGate extends AndroidTestCase {
+
+    private static final String LOCATION = "94043";
+    private static final String OTHER_LOCATION = "10001";
+    private static final long NOW = 1471000000000L;
+    private static final long STALE = NOW - 2 * SyncRequestGate.FRESHNESS_MILLIS;
+
+    private SyncRequestGate mGate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mGate = new SyncRequestGate();
+    }
+
+    public void testRequestsWithinTheWindowAreCoalesced() {
+        assertEquals(SyncRequestGate.DECISION_EXECUTE,
+                mGate.onRequest(LOCATION, NOW, STALE, LOCATION, false));
+        assertEquals(SyncRequestGate.DECISION_COALESCED,
+                mGate.onRequest(LOCATION, NOW + 1000, STALE, LOCATION, false));
+        assertEquals(SyncRequestGate.DECISION_EXECUTE, mGate.onRequest(LOCATION,
+                NOW + SyncRequestGate.COALESCE_WINDOW_MILLIS, STALE, LOCATION, false));
+        assertCounts(3, 2, 1, 0);
+    }
+
+    private void assertCounts(long requested, long executed, long coalesced, long fresh) {
+        assertEquals("Error: requested count", requested, mGate.getRequestedCount());
+        assertEquals("Error: executed count", executed, mGate.getExecutedCount());
+        assertEquals("Error: coalesced count", coalesced, mGate.getCoalescedCount());
+        assertEquals("Error: dropped as fresh count", fresh, mGate.getDroppedFreshCount());
+    }
+
+    public void testFreshForecastIsNotDownloadedAgain() {
+        long synced = NOW - SyncRequestGate.FRESHNESS_MILLIS + 1;
+        assertEquals(SyncRequestGate.DECISION_FRESH,
+                mGate.onRequest(LOCATION, NOW, synced, LOCATION, false));
+
+        assertEquals("Error: a forecast as old as the threshold was taken as fresh",
+                SyncRequestGate.DECISION_EXECUTE, mGate.onRequest(LOCATION, NOW,
+                        NOW - SyncRequestGate.FRESHNESS_MILLIS, LOCATION, false));
+        assertCounts(2, 1, 0, 1);
+    }
+
+    public void testLocationChangeAlwaysSyncs() {
+        assertEquals(SyncRequestGate.DECISION_EXECUTE,
+                mGate.onRequest(LOCATION, NOW, STALE, null, false));
+        // the new location was synced a while ago, but the last sync was for the old one
+        assertEquals(SyncRequestGate.DECISION_EXECUTE,
+                mGate.onRequest(OTHER_LOCATION, NOW + 1000, NOW - 1000, LOCATION, false));
+    }
+
+    public void testNeverSyncedLocationSyncs() {
+        assertEquals(SyncRequestGate.DECISION_EXECUTE,
+                mGate.onRequest(LOCATION, NOW, 0, null, false));
+    }
+
+    public void testClockSetBackDoesNotHoldSyncsOff() {
+        assertEquals(SyncRequestGate.DECISION_EXECUTE,
+                mGate.onRequest(LOCATION, NOW, STALE, LOCATION, false));
+        // an hour earlier than both the last request and the last sync
+        long earlier = NOW - 60 * 60 * 1000;
+        assertEquals(SyncRequestGate.DECISION_EXECUTE,
+                mGate.onRequest(LOCATION, earlier, NOW, LOCATION, false));
+    }
+
+    public void testReturnToFreshLocationSyncs() {
+        // synced A, then the user tried an invalid B and went back to A
+        long synced = NOW - 60 * 1000;
+        assertEquals(SyncRequestGate.DECISION_EXECUTE,
+                mGate.onRequest(OTHER_LOCATION, NOW, 0, LOCATION, true));
+        assertEquals("Error: going back to a fresh location left its status unsettled",
+                SyncRequestGate.DECISION_EXECUTE,
+                mGate.onRequest(LOCATION, NOW + 1000, synced, LOCATION, true));
+        // the same location asked for again at once is still coalesced
+        assertEquals(SyncRequestGate.DECISION_COALESCED,
+                mGate.onRequest(LOCATION, NOW + 2000, synced, LOCATION, true));
+        assertCounts(3, 2, 1, 0);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.Time;
+import android.util.SparseArray;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The date labels of {@link Utility}, cached by Julian day.
+ *
+ * The list, the detail view, the widgets and the notification label the same two weeks of days
+ * over and over, and each label used to cost a Time or two and a new SimpleDateFormat.  Labels
+ * are now formatted once per day and kept until they could read differently: when the day
+ * changes ("Tomorrow" becomes "Today"), or the time zone or the locale does.
+ *
+ * The labels are relative to today, so the cache holds the labels of one "today" only.
+ */
+final class DayLabels {
+
+    private static final int FRIENDLY = 0;
+    private static final int FRIENDLY_LONG_TODAY = 1;
+    private static final int FULL_FRIENDLY = 2;
+    private static final int DAY_NAME = 3;
+    private static final int MONTH_DAY = 4;
+    private static final int LABEL_COUNT = 5;
+
+    // a forecast is two weeks; this only keeps callers asking for any date from growing it
+    private static final int MAX_DAYS = 64;
+
+    private static DayLabels sInstance;
+
+    private final Context mContext;
+
+    // Julian day to its labels, each formatted the first time it is asked for
+    private final SparseArray<String[]> mLabels = new SparseArray<>();
+
+    // what the labels were formatted under; a null time zone means nothing is cached
+    private TimeZone mTimeZone;
+    private Locale mLocale;
+    private int mCurrentJulianDay;
+    private long mDayStart;
+    private long mNextDayStart;
+
+    private SimpleDateFormat mShortDateFormat;
+    private SimpleDateFormat mDayNameFormat;
+    private SimpleDateFormat mMonthDayFormat;
+
+    private DayLabels(Context context) {
+        mContext = context;
+    }
+
+    static synchronized DayLabels getInstance(Context context) {
+        if (sInstance == null) {
+            Context appContext = context.getApplicationContext();
+            sInstance = new DayLabels(appContext);
+            // Reading the default time zone copies it, so instead of comparing it on every call
+            // we are told when it changes.  The locale and the day are cheap to check.
+            appContext.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    sInstance.invalidate();
+                }
+            }, new IntentFilter(Intent.ACTION_TIMEZONE_CHANGED));
+        }
+        return sInstance;
+    }
+
+    synchronized void invalidate() {
+        mTimeZone = null;
+        mLabels.clear();
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString
+     */
+    synchronized String getFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        int label = displayLongToday ? FRIENDLY_LONG_TODAY : FRIENDLY;
+        String[] labels = getLabels(dateInMillis);
+        if (labels[label] == null) {
+            int julianDay = getJulianDay(dateInMillis);
+            if (displayLongToday && julianDay == mCurrentJulianDay) {
+                // For today: "Today, June 8"
+                labels[label] = mContext.getString(R.string.format_full_friendly_date,
+                        mContext.getString(R.string.today), getMonthDay(labels, dateInMillis));
+            } else if (julianDay < mCurrentJulianDay + 7) {
+                // For tomorrow and the next 5 days: "Tomorrow", "Wednesday"
+                labels[label] = getDayName(labels, dateInMillis);
+            } else {
+                // For all days after that: "Mon Jun 8"
+                labels[label] = mShortDateFormat.format(dateInMillis);
+            }
+        }
+        return labels[label];
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString
+     */
+    synchronized String getFullFriendlyDayString(long dateInMillis) {
+        String[] labels = getLabels(dateInMillis);
+        if (labels[FULL_FRIENDLY] == null) {
+            labels[FULL_FRIENDLY] = mContext.getString(R.string.format_full_friendly_date,
+                    getDayName(labels, dateInMillis), getMonthDay(labels, dateInMillis));
+        }
+        return labels[FULL_FRIENDLY];
+    }
+
+    /**
+     * @see Utility#getDayName
+     */
+    synchronized String getDayName(long dateInMillis) {
+        return getDayName(getLabels(dateInMillis), dateInMillis);
+    }
+
+    /**
+     * @see Utility#getFormattedMonthDay
+     */
+    synchronized String getFormattedMonthDay(long dateInMillis) {
+        return getMonthDay(getLabels(dateInMillis), dateInMillis);
+    }
+
+    private String getDayName(String[] labels, long dateInMillis) {
+        if (labels[DAY_NAME] == null) {
+            int julianDay = getJulianDay(dateInMillis);
+            if (julianDay == mCurrentJulianDay) {
+                labels[DAY_NAME] = mContext.getString(R.string.today);
+            } else if (julianDay == mCurrentJulianDay + 1) {
+                labels[DAY_NAME] = mContext.getString(R.string.tomorrow);
+            } else {
+                // Otherwise, the format is just the day of the week (e.g "Wednesday")
+                labels[DAY_NAME] = mDayNameFormat.format(dateInMillis);
+            }
+        }
+        return labels[DAY_NAME];
+    }
+
+    private String getMonthDay(String[] labels, long dateInMillis) {
+        if (labels[MONTH_DAY] == null) {
+            labels[MONTH_DAY] = mMonthDayFormat.format(dateInMillis);
+        }
+        return labels[MONTH_DAY];
+    }
+
+    /**
+     * @return the labels of the date's day, starting over first if today isn't the day they
+     * were formatted on
+     */
+    private String[] getLabels(long dateInMillis) {
+        long now = System.currentTimeMillis();
+        if (mTimeZone == null || now < mDayStart || now >= mNextDayStart ||
+                mLocale != Locale.getDefault()) {
+            startOver(now);
+        }
+        int julianDay = getJulianDay(dateInMillis);
+        String[] labels = mLabels.get(julianDay);
+        if (labels == null) {
+            if (mLabels.size() >= MAX_DAYS) {
+                mLabels.clear();
+            }
+            labels = new String[LABEL_COUNT];
+            mLabels.put(julianDay, labels);
+        }
+        return labels;
+    }
+
+    private void startOver(long now) {
+        mLabels.clear();
+        mTimeZone = TimeZone.getDefault();
+        mLocale = Locale.getDefault();
+
+        mCurrentJulianDay = getJulianDay(now);
+        Time time = new Time(mTimeZone.getID());
+        mDayStart = time.setJulianDay(mCurrentJulianDay);
+        mNextDayStart = time.setJulianDay(mCurrentJulianDay + 1);
+
+        mShortDateFormat = newDateFormat("EEE MMM dd");
+        mDayNameFormat = newDateFormat("EEEE");
+        mMonthDayFormat = newDateFormat("MMMM dd");
+    }
+
+    private SimpleDateFormat newDateFormat(String pattern) {
+        SimpleDateFormat format = new SimpleDateFormat(pattern, mLocale);
+        format.setTimeZone(mTimeZone);
+        return format;
+    }
+
+    // the offset is the one of the date itself, so days past a daylight saving change are right
+    private int getJulianDay(long dateInMillis) {
+        return Time.getJulianDay(dateInMillis, mTimeZone.getOffset(dateInMillis) / 1000);
+    }
+}
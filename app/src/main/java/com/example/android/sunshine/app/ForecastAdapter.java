@@ -21,6 +21,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -30,7 +31,6 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
@@ -41,10 +41,15 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     private static final int VIEW_TYPE_TODAY = 0;
     private static final int VIEW_TYPE_FUTURE_DAY = 1;
 
+    private static final ForecastItem[] NO_ITEMS = new ForecastItem[0];
+
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
     private Cursor mCursor;
+    // the rows of mCursor, formatted, and the units and art pack they were formatted with
+    private ForecastItem[] mItems = NO_ITEMS;
+    private String mDisplayPreferences;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -73,9 +78,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            if (adapterPosition == RecyclerView.NO_POSITION) {
+                // the row is being removed, or moved before the next layout pass
+                return;
+            }
+            mClickHandler.onClick(mItems[adapterPosition].date, this);
             mICM.onClick(this);
         }
     }
@@ -88,6 +95,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // must be set before ItemChoiceManager registers as an observer
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -124,26 +133,16 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
-        int defaultImage;
-        boolean useLongToday;
-
-        switch (getItemViewType(position)) {
-            case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
-                break;
-            default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
-        }
+        // Everything was formatted when the data was loaded; see ForecastItem
+        ForecastItem item = mItems[position];
+        boolean today = getItemViewType(position) == VIEW_TYPE_TODAY;
+        int defaultImage = today ? item.artResource : item.iconResource;
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( null == item.artUrl ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(item.artUrl)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
@@ -151,36 +150,22 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
         // this enables better animations. even if we lose state due to a device rotation,
         // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
-
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, item.transitionName);
 
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+        forecastAdapterViewHolder.mDateView.setText(today ? item.longDateText : item.dateText);
 
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
-
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(item.description);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(item.descriptionA11y);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(item.highText);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(item.highA11y);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(item.lowText);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(item.lowA11y);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
@@ -208,16 +193,104 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        return mItems.length;
     }
 
+    /**
+     * The id of a row is made of its day and location, so the same forecast keeps its id from
+     * one load to the next even when its row in the database was replaced.
+     */
+    @Override
+    public long getItemId(int position) {
+        return position < mItems.length ? mItems[position].stableId : RecyclerView.NO_ID;
+    }
+
+    /**
+     * Swaps in new data.  A cursor from {@link ForecastLoader} comes with its rows already
+     * formatted; any other cursor is formatted here, on the calling thread.
+     *
+     * Only the differences with the rows shown so far are notified, so that a sync which
+     * changed a day or two rebinds those rows only, and the selection stays on its day.
+     */
     public void swapCursor(Cursor newCursor) {
         mCursor = newCursor;
-        notifyDataSetChanged();
+        String displayPreferences = Utility.getDisplayPreferences(mContext);
+        ForecastItem[] oldItems = mItems;
+        if (null == newCursor) {
+            mItems = NO_ITEMS;
+        } else if (newCursor instanceof ForecastLoader.ForecastCursor &&
+                displayPreferences.equals(
+                        ((ForecastLoader.ForecastCursor) newCursor).displayPreferences)) {
+            mItems = ((ForecastLoader.ForecastCursor) newCursor).items;
+        } else {
+            mItems = ForecastItem.fromCursor(mContext, newCursor);
+        }
+        mDisplayPreferences = displayPreferences;
+        if (oldItems.length == 0) {
+            notifyDataSetChanged();
+        } else {
+            notifyChanges(oldItems, mItems);
+        }
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
+    /*
+        Both lists are sorted by date, and hold a single location each, so the differences can be
+        found in one pass over the two of them.  The events are sent in order, each position
+        counting the ones sent before it, which is what RecyclerView expects.  RecyclerView 23.0
+        has no DiffUtil, hence the hand-written merge.
+     */
+    private void notifyChanges(ForecastItem[] oldItems, ForecastItem[] newItems) {
+        if (oldItems.length == 0 || newItems.length == 0 || !TextUtils.equals(oldItems[0].locationSetting,
+                newItems[0].locationSetting)) {
+            // not a single day in common
+            notifyItemRangeRemoved(0, oldItems.length);
+            notifyItemRangeInserted(0, newItems.length);
+            return;
+        }
+        int oldIndex = 0;
+        int newIndex = 0;
+        while (oldIndex < oldItems.length && newIndex < newItems.length) {
+            ForecastItem oldItem = oldItems[oldIndex];
+            ForecastItem newItem = newItems[newIndex];
+            if (oldItem.date < newItem.date) {
+                // gone, and the rows after it move up
+                notifyItemRemoved(newIndex);
+                oldIndex++;
+            } else if (oldItem.date > newItem.date) {
+                notifyItemInserted(newIndex);
+                newIndex++;
+            } else {
+                // a row moving to or from the top also changes layout
+                if (!oldItem.hasSameContentAs(newItem) ||
+                        (mUseTodayLayout && (oldIndex == 0) != (newIndex == 0))) {
+                    notifyItemChanged(newIndex);
+                }
+                oldIndex++;
+                newIndex++;
+            }
+        }
+        if (oldIndex < oldItems.length) {
+            notifyItemRangeRemoved(newIndex, oldItems.length - oldIndex);
+        } else if (newIndex < newItems.length) {
+            notifyItemRangeInserted(newIndex, newItems.length - newIndex);
+        }
+    }
+
+    /**
+     * Rebinds the rows from the cursor already loaded if the units or the art pack changed since
+     * they were bound.  The data itself is the same, so there is nothing to query again.
+     */
+    public void onDisplayPreferencesChanged() {
+        String displayPreferences = Utility.getDisplayPreferences(mContext);
+        if (null == mCursor || displayPreferences.equals(mDisplayPreferences)) return;
+        mDisplayPreferences = displayPreferences;
+        // a handful of rows, already in memory; only those that now read differently rebind
+        ForecastItem[] oldItems = mItems;
+        mItems = ForecastItem.fromCursor(mContext, mCursor);
+        notifyChanges(oldItems, mItems);
+    }
+
     public Cursor getCursor() {
         return mCursor;
     }
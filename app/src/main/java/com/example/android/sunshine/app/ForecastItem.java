@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+import android.text.format.DateUtils;
+
+/**
+ * One row of the forecast list, formatted and ready to be shown.
+ *
+ * Everything {@link ForecastAdapter#onBindViewHolder} needs is computed here, from a cursor with
+ * the {@link ForecastFragment} projection, so that binding a row is only a matter of handing
+ * these fields to the views.  Items are built off the UI thread by {@link ForecastLoader}, and
+ * never change once built: new data or new display preferences mean new items.
+ */
+final class ForecastItem {
+
+    final long id;
+    final long date;
+    final String locationSetting;
+    // the same for the same day and location in every load, see ForecastAdapter#getItemId
+    final long stableId;
+    final int weatherId;
+
+    // the date as the "today" layout shows it, and as every other row does
+    final String longDateText;
+    final String dateText;
+
+    final int iconResource;
+    final int artResource;
+    // null when the local graphics are used
+    final String artUrl;
+    final String transitionName;
+
+    final String description;
+    final String descriptionA11y;
+    final String highText;
+    final String highA11y;
+    final String lowText;
+    final String lowA11y;
+
+    private ForecastItem(Context context, Cursor cursor, boolean localGraphics) {
+        int position = cursor.getPosition();
+        id = cursor.getLong(ForecastFragment.COL_WEATHER_ID);
+        date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        locationSetting = cursor.getString(ForecastFragment.COL_LOCATION_SETTING);
+        int locationHash = null == locationSetting ? 0 : locationSetting.hashCode();
+        stableId = (long) locationHash << 32 | (date / DateUtils.DAY_IN_MILLIS & 0xffffffffL);
+        weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+
+        dateText = Utility.getFriendlyDayString(context, date, false);
+        // only the first row can be shown with the "today" layout
+        longDateText = position == 0
+                ? Utility.getFriendlyDayString(context, date, true) : dateText;
+
+        iconResource = Utility.getIconResourceForWeatherCondition(weatherId);
+        artResource = Utility.getArtResourceForWeatherCondition(weatherId);
+        artUrl = localGraphics ? null : Utility.getArtUrlForWeatherCondition(context, weatherId);
+        // this enables better animations. even if we lose state due to a device rotation,
+        // the animator can use this to re-find the original view.  It follows the day rather
+        // than the position, since rows move between loads
+        transitionName = "iconView" + date;
+
+        description = Utility.getStringForWeatherCondition(context, weatherId);
+        descriptionA11y = context.getString(R.string.a11y_forecast, description);
+        highText = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+        highA11y = context.getString(R.string.a11y_high_temp, highText);
+        lowText = Utility.formatTemperature(context,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        lowA11y = context.getString(R.string.a11y_low_temp, lowText);
+    }
+
+    /**
+     * @return whether binding the other item would show exactly what this one shows.  The long
+     * date isn't compared: it depends on the position, which the adapter checks itself.
+     */
+    boolean hasSameContentAs(ForecastItem other) {
+        return weatherId == other.weatherId
+                && dateText.equals(other.dateText)
+                && TextUtils.equals(artUrl, other.artUrl)
+                && description.equals(other.description)
+                && highText.equals(other.highText)
+                && lowText.equals(other.lowText);
+    }
+
+    /**
+     * Builds the items for every row of the cursor, under the current display preferences.
+     * The cursor is left before its first row.
+     */
+    static ForecastItem[] fromCursor(Context context, Cursor cursor) {
+        boolean localGraphics = Utility.usingLocalGraphics(context);
+        ForecastItem[] items = new ForecastItem[cursor.getCount()];
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            items[cursor.getPosition()] = new ForecastItem(context, cursor, localGraphics);
+        }
+        cursor.moveToPosition(-1);
+        return items;
+    }
+}
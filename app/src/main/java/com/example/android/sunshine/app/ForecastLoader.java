@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+/**
+ * A CursorLoader for the forecast list that also formats the rows it loaded, on the loader's
+ * background thread.  The cursor it delivers is a {@link ForecastCursor}, which carries the
+ * {@link ForecastItem}s along with the rows.
+ */
+class ForecastLoader extends CursorLoader {
+
+    /**
+     * The loaded rows together with their formatted items, and the display preferences the
+     * items were formatted under.
+     */
+    static final class ForecastCursor extends CursorWrapper {
+        final ForecastItem[] items;
+        final String displayPreferences;
+
+        ForecastCursor(Cursor cursor, ForecastItem[] items, String displayPreferences) {
+            super(cursor);
+            this.items = items;
+            this.displayPreferences = displayPreferences;
+        }
+    }
+
+    ForecastLoader(Context context, Uri uri, String[] projection, String sortOrder) {
+        super(context, uri, projection, null, null, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        Context context = getContext();
+        // read before the items are built, so that a change made meanwhile is caught on resume
+        String displayPreferences = Utility.getDisplayPreferences(context);
+        return new ForecastCursor(cursor, ForecastItem.fromCursor(context, cursor),
+                displayPreferences);
+    }
+}
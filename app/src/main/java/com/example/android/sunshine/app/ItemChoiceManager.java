@@ -28,8 +28,9 @@ import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  It observes
+ * the adapter, so that the selection follows its items as they are inserted and removed; only
+ * after a whole data set change does it fall back to looking for the selected ids nearby.
  */
 public class ItemChoiceManager {
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -44,6 +45,16 @@ public class ItemChoiceManager {
             if (mAdapter != null && mAdapter.hasStableIds())
                 confirmCheckedPositionsById(mAdapter.getItemCount());
         }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            offsetCheckedPositions(positionStart, itemCount, false);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            offsetCheckedPositions(positionStart, itemCount, true);
+        }
     };
 
     private ItemChoiceManager() {
@@ -53,6 +64,7 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
     /**
@@ -188,6 +200,42 @@ public class ItemChoiceManager {
         }
     }
 
+    /**
+     * Moves the checked positions at or after positionStart by itemCount, the way the items
+     * themselves moved.  Checked items that were removed are no longer checked.
+     */
+    void offsetCheckedPositions(int positionStart, int itemCount, boolean removed) {
+        if (mCheckStates.size() == 0) {
+            return;
+        }
+        SparseBooleanArray checkStates = new SparseBooleanArray(mCheckStates.size());
+        for (int i = 0; i < mCheckStates.size(); i++) {
+            int position = mCheckStates.keyAt(i);
+            if (position < positionStart) {
+                checkStates.put(position, mCheckStates.valueAt(i));
+            } else if (!removed) {
+                checkStates.put(position + itemCount, mCheckStates.valueAt(i));
+            } else if (position >= positionStart + itemCount) {
+                checkStates.put(position - itemCount, mCheckStates.valueAt(i));
+            }
+        }
+        mCheckStates = checkStates;
+
+        for (int i = mCheckedIdStates.size() - 1; i >= 0; i--) {
+            int position = mCheckedIdStates.valueAt(i);
+            if (position < positionStart) {
+                continue;
+            }
+            if (!removed) {
+                mCheckedIdStates.setValueAt(i, position + itemCount);
+            } else if (position >= positionStart + itemCount) {
+                mCheckedIdStates.setValueAt(i, position - itemCount);
+            } else {
+                mCheckedIdStates.removeAt(i);
+            }
+        }
+    }
+
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
         boolean checked = isItemChecked(position);
         if (vh.itemView instanceof Checkable) {
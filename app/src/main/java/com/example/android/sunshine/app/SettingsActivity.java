@@ -17,7 +17,6 @@ package com.example.android.sunshine.app;
 
 import android.annotation.TargetApi;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.ListPreference;
@@ -25,8 +24,8 @@ import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 
-import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.WearableForecastService;
 
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
@@ -37,7 +36,12 @@ import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
  * API Guide</a> for more information on developing a Settings UI.
  */
 public class SettingsActivity extends PreferenceActivity
-        implements Preference.OnPreferenceChangeListener, SharedPreferences.OnSharedPreferenceChangeListener {
+        implements Preference.OnPreferenceChangeListener, SettingsSnapshot.OnSettingsChangedListener {
+
+    // Sent when the units or the art pack change.  Nothing about the stored weather changes,
+    // so the widgets redraw from the rows they already have.
+    public static final String ACTION_DISPLAY_PREFERENCES_CHANGED =
+            "com.example.android.sunshine.app.ACTION_DISPLAY_PREFERENCES_CHANGED";
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -52,19 +56,17 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
     }
 
-    // Registers a shared preference change listener that gets notified when preferences change
+    // Registers a settings listener that gets notified when preferences change
     @Override
     protected void onResume() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
-        sp.registerOnSharedPreferenceChangeListener(this);
+        SettingsSnapshot.registerListener(this, this);
         super.onResume();
     }
 
-    // Unregisters a shared preference change listener
+    // Unregisters the settings listener
     @Override
     protected void onPause() {
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
-        sp.unregisterOnSharedPreferenceChangeListener(this);
+        SettingsSnapshot.unregisterListener(this);
         super.onPause();
     }
 
@@ -127,28 +129,36 @@ public class SettingsActivity extends PreferenceActivity
         return true;
     }
 
-    // This gets called after the preference is changed, which is important because we
-    // start our synchronization here
+    // This gets called after the preference is changed and the settings snapshot has been read
+    // again, which is important because we start our synchronization here
     @Override
-    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+    public void onSettingsChanged(SettingsSnapshot snapshot, String key) {
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
             // first clear locationStatus
             Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            SunshineSyncAdapter.syncLocationChange(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
-            // units have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // units have changed. The list and detail views format their rows again when they
+            // resume; the widgets are told now, and the watch gets the forecast again with the
+            // new units, since no sync will send it for an unchanged forecast.
+            notifyDisplayPreferencesChanged();
+            startService(new Intent(this, WearableForecastService.class));
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            notifyDisplayPreferencesChanged();
         }
     }
 
+    private void notifyDisplayPreferencesChanged() {
+        // Setting the package ensures that only components in our app will receive the broadcast
+        sendBroadcast(new Intent(ACTION_DISPLAY_PREFERENCES_CHANGED).setPackage(getPackageName()));
+    }
+
     @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
     @Override
     public Intent getParentActivityIntent() {
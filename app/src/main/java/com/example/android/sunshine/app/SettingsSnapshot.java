@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The preferences {@link Utility} formats and picks art with, read once and kept in memory.
+ *
+ * Those helpers run for every row of the list, every widget row and every wear update, and
+ * used to look up the default SharedPreferences and the keys on each call.  A snapshot never
+ * changes; when one of its preferences does, a new snapshot is read and swapped in whole, so a
+ * caller always sees a consistent set of values.
+ *
+ * The snapshot's own preference listener is the only thing that swaps in a new one.
+ * SharedPreferences calls its listeners in no particular order, so code that reacts to one of
+ * these preferences listens through {@link #registerListener}, and is called once the new
+ * snapshot is in place.  A write on the main thread is seen as soon as it returns; the listener
+ * of a write on another thread runs later, on the main thread.
+ */
+public final class SettingsSnapshot {
+
+    /**
+     * Called on the main thread after one of the preferences changed and the snapshot was read
+     * again.
+     */
+    public interface OnSettingsChangedListener {
+        void onSettingsChanged(SettingsSnapshot snapshot, String key);
+    }
+
+    private static volatile SettingsSnapshot sCurrent;
+
+    // SharedPreferences only keeps weak references to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sPreferenceListener;
+
+    private static final List<OnSettingsChangedListener> sListeners =
+            new CopyOnWriteArrayList<>();
+
+    public final String locationSetting;
+    public final boolean metric;
+    // the art url format, which is also the value of the art pack preference
+    public final String artPack;
+    public final boolean localGraphics;
+    @SunshineSyncAdapter.LocationStatus
+    public final int locationStatus;
+    // see Utility#getDisplayPreferences
+    public final String displayPreferences;
+
+    @SuppressWarnings("ResourceType")
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        locationSetting = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+
+        String metricUnits = context.getString(R.string.pref_units_metric);
+        String units = prefs.getString(context.getString(R.string.pref_units_key), metricUnits);
+        metric = units.equals(metricUnits);
+
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        artPack = prefs.getString(context.getString(R.string.pref_art_pack_key), sunshineArtPack);
+        localGraphics = artPack.equals(sunshineArtPack);
+
+        locationStatus = prefs.getInt(context.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+
+        displayPreferences = units + "|" + artPack;
+    }
+
+    /**
+     * @return the current snapshot, read the first time it is asked for
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot snapshot = sCurrent;
+        return snapshot != null ? snapshot : read(context);
+    }
+
+    /**
+     * Adds a listener to call after the snapshot changed.  Unlike SharedPreferences, this keeps
+     * a strong reference until {@link #unregisterListener}.
+     */
+    public static void registerListener(Context context, OnSettingsChangedListener listener) {
+        // reading the first snapshot starts listening to the preferences
+        get(context);
+        sListeners.add(listener);
+    }
+
+    public static void unregisterListener(OnSettingsChangedListener listener) {
+        sListeners.remove(listener);
+    }
+
+    private static SettingsSnapshot read(Context context) {
+        final Context appContext = context.getApplicationContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+        synchronized (SettingsSnapshot.class) {
+            if (sPreferenceListener == null) {
+                sPreferenceListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                        SettingsSnapshot snapshot = read(appContext);
+                        for (OnSettingsChangedListener listener : sListeners) {
+                            listener.onSettingsChanged(snapshot, key);
+                        }
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(sPreferenceListener);
+            }
+            SettingsSnapshot snapshot = new SettingsSnapshot(appContext, prefs);
+            sCurrent = snapshot;
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small read-through cache for the provider's by-location weather queries.
+ *
+ * Right after a sync the forecast list, both widgets, Muzei and the notification all ask for
+ * the same few rows.  The first of them reads the database; the rows are copied into memory
+ * and everybody else gets a MatrixCursor over that copy.  Entries are dropped when a write
+ * touches their location.
+ *
+ * A reader that was already querying when a write happened must not put what it read into the
+ * cache afterwards, so every invalidation bumps a generation, and {@link #put} only keeps rows
+ * read under the current one.
+ */
+class ForecastCursorCache {
+
+    // A forecast is two weeks of rows; anything much bigger isn't what this cache is for.
+    private static final int MAX_ENTRIES = 16;
+    private static final int MAX_ROWS = 64;
+
+    private static final class Entry {
+        final String locationSetting;
+        final String[] columns;
+        final Object[][] rows;
+
+        Entry(String locationSetting, String[] columns, Object[][] rows) {
+            this.locationSetting = locationSetting;
+            this.columns = columns;
+            this.rows = rows;
+        }
+    }
+
+    // in access order, so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    private long mGeneration;
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * @return the key for a query, made of everything that decides its result
+     */
+    static String getKey(int match, String uri, String[] projection, String sortOrder) {
+        return match + "|" + uri + "|" + Arrays.toString(projection) + "|" + sortOrder;
+    }
+
+    /**
+     * @return a cursor over the cached rows for the key, or null (counted as a miss) if there
+     * are none
+     */
+    synchronized Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return newCursor(entry);
+    }
+
+    /**
+     * @return the generation to hand to {@link #put} for a query that starts now
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Caches the rows of a cursor that was read for the given location.  The cursor is consumed
+     * and closed unless it is handed back: this returns the cursor the caller should use, which
+     * is either a copy over the cached rows, or the original one when it is too big to cache.
+     *
+     * @param generation the value of {@link #getGeneration()} from before the query ran
+     */
+    Cursor put(String key, String locationSetting, Cursor cursor, long generation) {
+        if (cursor.getCount() > MAX_ROWS) {
+            return cursor;
+        }
+        Entry entry = new Entry(locationSetting, cursor.getColumnNames(), copyRows(cursor));
+        cursor.close();
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mEntries.put(key, entry);
+            }
+        }
+        return newCursor(entry);
+    }
+
+    /**
+     * Drops the entries of the given locations.
+     */
+    synchronized void invalidate(Collection<String> locationSettings) {
+        mGeneration++;
+        if (locationSettings.isEmpty()) {
+            return;
+        }
+        for (Iterator<Entry> i = mEntries.values().iterator(); i.hasNext(); ) {
+            if (locationSettings.contains(i.next().locationSetting)) {
+                i.remove();
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mEntries.clear();
+    }
+
+    synchronized long getHitCount() {
+        return mHits;
+    }
+
+    synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    private static Cursor newCursor(Entry entry) {
+        // addRow copies the values, so the cached rows are never handed out themselves
+        MatrixCursor cursor = new MatrixCursor(entry.columns, entry.rows.length);
+        for (Object[] row : entry.rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private static Object[][] copyRows(Cursor cursor) {
+        int columnCount = cursor.getColumnCount();
+        Object[][] rows = new Object[cursor.getCount()][];
+        cursor.moveToPosition(-1);
+        for (int r = 0; cursor.moveToNext(); r++) {
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                switch (cursor.getType(i)) {
+                    case Cursor.FIELD_TYPE_INTEGER:
+                        row[i] = cursor.getLong(i);
+                        break;
+                    case Cursor.FIELD_TYPE_FLOAT:
+                        row[i] = cursor.getDouble(i);
+                        break;
+                    case Cursor.FIELD_TYPE_STRING:
+                        row[i] = cursor.getString(i);
+                        break;
+                    case Cursor.FIELD_TYPE_BLOB:
+                        row[i] = cursor.getBlob(i);
+                        break;
+                    default:
+                        row[i] = null;
+                }
+            }
+            rows[r] = row;
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.data.WeatherContract.ProviderStatsEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histograms and row counts of the provider's calls, kept per operation, URI match code
+ * and caller tag, so a slow widget or Muzei query shows up without a profiler.
+ *
+ * Recording a call is a couple of map lookups under a lock; a histogram is only allocated for
+ * the first call of its kind.
+ */
+class ProviderStats {
+
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+
+    // indexed by operation
+    private static final String[] OPERATIONS = {
+            ProviderStatsEntry.OPERATION_QUERY,
+            ProviderStatsEntry.OPERATION_INSERT,
+            ProviderStatsEntry.OPERATION_BULK_INSERT,
+            ProviderStatsEntry.OPERATION_UPDATE,
+            ProviderStatsEntry.OPERATION_DELETE
+    };
+
+    // Upper bounds of the histogram buckets, in microseconds; the last bucket has none.
+    private static final long[] BUCKET_BOUNDS_US = {250, 1000, 4000, 16000, 64000, 256000};
+
+    static final String[] COLUMNS = {
+            ProviderStatsEntry.COLUMN_OPERATION,
+            ProviderStatsEntry.COLUMN_MATCH_CODE,
+            ProviderStatsEntry.COLUMN_CALLER,
+            ProviderStatsEntry.COLUMN_CALLS,
+            ProviderStatsEntry.COLUMN_ROWS,
+            ProviderStatsEntry.COLUMN_TOTAL_US,
+            ProviderStatsEntry.COLUMN_MAX_US,
+            ProviderStatsEntry.COLUMN_UNDER_250US,
+            ProviderStatsEntry.COLUMN_UNDER_1MS,
+            ProviderStatsEntry.COLUMN_UNDER_4MS,
+            ProviderStatsEntry.COLUMN_UNDER_16MS,
+            ProviderStatsEntry.COLUMN_UNDER_64MS,
+            ProviderStatsEntry.COLUMN_UNDER_256MS,
+            ProviderStatsEntry.COLUMN_OVER_256MS
+    };
+
+    private static final class Histogram {
+        final int operation;
+        final int match;
+        final String caller;
+        final long[] buckets = new long[BUCKET_BOUNDS_US.length + 1];
+        long calls;
+        long rows;
+        long totalUs;
+        long maxUs;
+
+        Histogram(int operation, int match, String caller) {
+            this.operation = operation;
+            this.match = match;
+            this.caller = caller;
+        }
+
+        void add(long us, long rowCount) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_US.length && us >= BUCKET_BOUNDS_US[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+            calls++;
+            rows += rowCount;
+            totalUs += us;
+            maxUs = Math.max(maxUs, us);
+        }
+    }
+
+    // by caller, then by operation and match code together
+    private final Map<String, SparseArray<Histogram>> mHistograms = new HashMap<>();
+
+    /**
+     * @return the start of a call, to hand to {@link #record}
+     */
+    static long begin() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Counts a call that began at start and has just finished.
+     *
+     * @param caller the caller the URI was tagged with, or null if it wasn't
+     * @param rows   the rows the call returned or wrote
+     */
+    void record(int operation, int match, String caller, long start, long rows) {
+        long us = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        if (caller == null) {
+            caller = ProviderStatsEntry.CALLER_APP;
+        }
+        // match codes are spaced far wider apart than there are operations
+        int key = match * OPERATIONS.length + operation;
+        synchronized (this) {
+            SparseArray<Histogram> byKey = mHistograms.get(caller);
+            if (byKey == null) {
+                byKey = new SparseArray<>();
+                mHistograms.put(caller, byKey);
+            }
+            Histogram histogram = byKey.get(key);
+            if (histogram == null) {
+                histogram = new Histogram(operation, match, caller);
+                byKey.put(key, histogram);
+            }
+            histogram.add(us, rows);
+        }
+    }
+
+    /**
+     * @return a cursor over the counts so far, with the {@link #COLUMNS} columns
+     */
+    synchronized Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (SparseArray<Histogram> byKey : mHistograms.values()) {
+            for (int i = 0; i < byKey.size(); i++) {
+                Histogram histogram = byKey.valueAt(i);
+                MatrixCursor.RowBuilder row = cursor.newRow()
+                        .add(OPERATIONS[histogram.operation])
+                        .add(histogram.match)
+                        .add(histogram.caller)
+                        .add(histogram.calls)
+                        .add(histogram.rows)
+                        .add(histogram.totalUs)
+                        .add(histogram.maxUs);
+                for (long count : histogram.buckets) {
+                    row.add(count);
+                }
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Starts the counts over.
+     *
+     * @return the number of rows the cursor had
+     */
+    synchronized int reset() {
+        int rows = 0;
+        for (SparseArray<Histogram> byKey : mHistograms.values()) {
+            rows += byKey.size();
+        }
+        mHistograms.clear();
+        return rows;
+    }
+}
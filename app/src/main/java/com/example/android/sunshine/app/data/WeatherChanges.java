@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.text.format.Time;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The weather rows touched by a write, by location id and normalized date.  The provider turns
+ * them into the weather/&lt;location&gt; and weather/&lt;location&gt;/&lt;date&gt; URIs it
+ * notifies, and into the cached queries it drops, once the write is visible to readers.
+ */
+class WeatherChanges {
+
+    // location id to the dates changed, or to null when any of its dates may have changed
+    private final Map<Long, Set<Long>> mDates = new HashMap<>();
+    private final Time mTime = new Time();
+
+    /**
+     * Records a change to the row of a location and date; the date is normalized here.
+     */
+    void add(Long locationId, Long date) {
+        if (locationId == null) {
+            return;
+        }
+        if (date == null) {
+            addLocation(locationId);
+            return;
+        }
+        if (mDates.containsKey(locationId)) {
+            Set<Long> dates = mDates.get(locationId);
+            if (dates != null) {
+                dates.add(WeatherContract.normalizeDate(mTime, date));
+            }
+            return;
+        }
+        Set<Long> dates = new HashSet<>();
+        dates.add(WeatherContract.normalizeDate(mTime, date));
+        mDates.put(locationId, dates);
+    }
+
+    /**
+     * Records a change to any number of a location's rows.
+     */
+    void addLocation(Long locationId) {
+        if (locationId != null) {
+            mDates.put(locationId, null);
+        }
+    }
+
+    boolean isEmpty() {
+        return mDates.isEmpty();
+    }
+
+    Set<Long> getLocationIds() {
+        return mDates.keySet();
+    }
+
+    /**
+     * @return the single date changed for the location, or -1 if several (or an unknown set of)
+     * dates changed
+     */
+    long getOnlyDate(long locationId) {
+        Set<Long> dates = mDates.get(locationId);
+        return dates != null && dates.size() == 1 ? dates.iterator().next() : -1;
+    }
+}
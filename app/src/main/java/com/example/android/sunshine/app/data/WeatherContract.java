@@ -43,12 +43,29 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_SYNC_METRICS = "sync_metrics";
+    public static final String PATH_PROVIDER_STATS = "provider_stats";
+
+    // Provider method, for ContentResolver.call, that checkpoints the database's write-ahead
+    // log.  The sync adapter calls it once it has written a forecast.
+    public static final String METHOD_CHECKPOINT = "checkpoint";
+
+    // Provider method that reports how the provider's cache of forecast queries is doing, as
+    // longs under KEY_CACHE_HITS and KEY_CACHE_MISSES of the returned Bundle.
+    public static final String METHOD_GET_CACHE_STATS = "get_cache_stats";
+    public static final String KEY_CACHE_HITS = "cache_hits";
+    public static final String KEY_CACHE_MISSES = "cache_misses";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
+        return normalizeDate(new Time(), startDate);
+    }
+
+    // Same as above, but reuses the given Time so a caller normalizing many dates in a row
+    // doesn't allocate one per date.
+    public static long normalizeDate(Time time, long startDate) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
         time.set(startDate);
         int julianDay = Time.getJulianDay(startDate, time.gmtoff);
         return time.setJulianDay(julianDay);
@@ -101,6 +118,9 @@ public class WeatherContract {
 
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
+        // Copy of the location's setting, kept in sync by the database.  It has the same name as
+        // the location table column, so that reads by location setting don't need the join.
+        public static final String COLUMN_LOCATION_SETTING = LocationEntry.COLUMN_LOCATION_SETTING;
         // Date, stored as long in milliseconds since the epoch
         public static final String COLUMN_DATE = "date";
         // Weather id as returned by API, to identify the icon to be used
@@ -126,10 +146,39 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Hash over the forecast columns of the row, maintained by the provider.  Upserts use it
+        // to tell an unchanged forecast from a new one without comparing every column.
+        public static final String COLUMN_CONTENT_HASH = "content_hash";
+
+        // Query parameter that switches inserts on the weather URI to upsert mode, and carries
+        // the outcome of each upsert on the returned row URI.
+        public static final String PARAM_UPSERT = "upsert";
+
+        // Outcomes of an upsert, as found in the PARAM_UPSERT parameter of the returned URI
+        public static final String UPSERT_INSERTED = "inserted";
+        public static final String UPSERT_UPDATED = "updated";
+        public static final String UPSERT_UNCHANGED = "unchanged";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
 
+        /*
+            Inserting into this URI only writes rows whose forecast differs from the stored one
+            for the same location and date; unchanged rows keep their _ID and aren't notified.
+         */
+        public static Uri buildWeatherUpsertUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_UPSERT, "true").build();
+        }
+
+        public static boolean isUpsertUri(Uri uri) {
+            return uri.getQueryParameter(PARAM_UPSERT) != null;
+        }
+
+        public static String getUpsertResultFromUri(Uri uri) {
+            return uri.getQueryParameter(PARAM_UPSERT);
+        }
+
         /*
             Student: This is the buildWeatherLocation function you filled in.
          */
@@ -165,4 +214,141 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /**
+     * One row per sync: how long each phase of it took and how much it moved.  Only the most
+     * recent {@link #MAX_ROWS} syncs are kept; older rows are dropped as new ones come in.
+     *
+     * Phase times are measured with a monotonic clock, in microseconds.  A phase the sync
+     * didn't reach is 0.
+     */
+    public static final class SyncMetricsEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SYNC_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SYNC_METRICS;
+
+        public static final String TABLE_NAME = "sync_metrics";
+
+        public static final int MAX_ROWS = 100;
+
+        // Wall clock time the sync started at, in milliseconds since the epoch
+        public static final String COLUMN_START_TIME = "start_time";
+        public static final String COLUMN_LOCATION_SETTING = "location_setting";
+        // One of the OUTCOME_ values
+        public static final String COLUMN_OUTCOME = "outcome";
+
+        // Opening the connection: DNS lookup, TCP and TLS handshakes, sending the request
+        public static final String COLUMN_CONNECT_US = "connect_us";
+        // Waiting for the status line once the request is sent
+        public static final String COLUMN_FIRST_BYTE_US = "first_byte_us";
+        // Reading the body off the socket
+        public static final String COLUMN_DOWNLOAD_US = "download_us";
+        // Inflating a compressed body
+        public static final String COLUMN_DECOMPRESS_US = "decompress_us";
+        // Parsing the JSON, less the reads above
+        public static final String COLUMN_PARSE_US = "parse_us";
+        // Looking up the location row
+        public static final String COLUMN_LOCATION_US = "location_us";
+        // The write batch: the location insert, the day upserts and the delete of old days,
+        // which share one transaction
+        public static final String COLUMN_WRITE_US = "write_us";
+        public static final String COLUMN_CHECKPOINT_US = "checkpoint_us";
+        public static final String COLUMN_WEARABLE_US = "wearable_us";
+        public static final String COLUMN_WIDGETS_US = "widgets_us";
+        public static final String COLUMN_MUZEI_US = "muzei_us";
+        public static final String COLUMN_NOTIFY_US = "notify_us";
+        // The whole sync, from start to finish
+        public static final String COLUMN_TOTAL_US = "total_us";
+
+        public static final String COLUMN_WIRE_BYTES = "wire_bytes";
+        public static final String COLUMN_DECODED_BYTES = "decoded_bytes";
+        public static final String COLUMN_ROWS_INSERTED = "rows_inserted";
+        public static final String COLUMN_ROWS_UPDATED = "rows_updated";
+        public static final String COLUMN_ROWS_UNCHANGED = "rows_unchanged";
+        public static final String COLUMN_ROWS_DELETED = "rows_deleted";
+
+        // The forecast was downloaded and written
+        public static final String OUTCOME_UPDATED = "updated";
+        // The server answered 304: the forecast we hold is current
+        public static final String OUTCOME_NOT_MODIFIED = "not_modified";
+        // The download, the response or the write failed
+        public static final String OUTCOME_FAILED = "failed";
+    }
+
+    /**
+     * How long the provider's own calls have taken since the process started: one row per
+     * operation, URI match code and caller.  Deleting through this URI starts the counts over.
+     *
+     * Every caller lives in the app's own process, so the provider can't tell them apart by
+     * package.  The widgets, Muzei and the sync tag their URIs with {@link #withCaller}
+     * instead; calls with untagged URIs come from the app's screens.
+     *
+     * A call that throws is not counted.  The time of a query includes running it, not just
+     * preparing it.
+     */
+    public static final class ProviderStatsEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_PROVIDER_STATS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PROVIDER_STATS;
+
+        // One of the OPERATION_ values
+        public static final String COLUMN_OPERATION = "operation";
+        // The provider's code for the kind of URI, as an int
+        public static final String COLUMN_MATCH_CODE = "match_code";
+        // One of the CALLER_ values
+        public static final String COLUMN_CALLER = "caller";
+        public static final String COLUMN_CALLS = "calls";
+        // Rows returned by queries, or written by the other operations
+        public static final String COLUMN_ROWS = "rows";
+        public static final String COLUMN_TOTAL_US = "total_us";
+        public static final String COLUMN_MAX_US = "max_us";
+
+        // The latency histogram: the number of calls that took less than each bound, and not
+        // less than the one before it
+        public static final String COLUMN_UNDER_250US = "under_250us";
+        public static final String COLUMN_UNDER_1MS = "under_1ms";
+        public static final String COLUMN_UNDER_4MS = "under_4ms";
+        public static final String COLUMN_UNDER_16MS = "under_16ms";
+        public static final String COLUMN_UNDER_64MS = "under_64ms";
+        public static final String COLUMN_UNDER_256MS = "under_256ms";
+        public static final String COLUMN_OVER_256MS = "over_256ms";
+
+        public static final String OPERATION_QUERY = "query";
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_BULK_INSERT = "bulk_insert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+
+        // Untagged calls: the forecast list, the detail view and the settings
+        public static final String CALLER_APP = "app";
+        public static final String CALLER_TODAY_WIDGET = "today_widget";
+        public static final String CALLER_DETAIL_WIDGET = "detail_widget";
+        public static final String CALLER_MUZEI = "muzei";
+        public static final String CALLER_NOTIFICATION = "notification";
+        public static final String CALLER_WEARABLE = "wearable";
+        public static final String CALLER_SYNC = "sync";
+
+        // Query parameter carrying the caller; the provider strips it before handling the call
+        public static final String PARAM_CALLER = "caller";
+
+        /**
+         * @return the URI, tagged as called from one of the CALLER_ parts of the app
+         */
+        public static Uri withCaller(Uri uri, String caller) {
+            return uri.buildUpon().appendQueryParameter(PARAM_CALLER, caller).build();
+        }
+
+        /**
+         * @return the caller the URI is tagged with, or null if it isn't
+         */
+        public static String getCallerFromUri(Uri uri) {
+            return uri.getQueryParameter(PARAM_CALLER);
+        }
+    }
 }
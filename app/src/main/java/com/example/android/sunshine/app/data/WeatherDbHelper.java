@@ -16,10 +16,12 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
 /**
@@ -27,13 +29,135 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add a
+    // step for the new version to migrate().
+    private static final int DATABASE_VERSION = 6;
+
+    // The oldest schema migrate() knows how to bring forward.  Anything older is dropped and
+    // created from scratch.
+    private static final int OLDEST_MIGRATABLE_VERSION = 2;
+
+    // Serves every weather query the provider makes: the join finds the location through the
+    // UNIQUE index on location_setting, then reads that location's days in date order from here.
+    static final String INDEX_WEATHER_LOCATION_DATE = "weather_location_date_idx";
+
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_LOCATION_DATE + " ON " +
+                    WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ");";
+
+    // Serves the provider's weather reads when they don't need any location columns: a range
+    // scan over one location's days, without touching the location table.
+    static final String INDEX_WEATHER_SETTING_DATE = "weather_setting_date_idx";
+
+    private static final String SQL_CREATE_WEATHER_SETTING_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + INDEX_WEATHER_SETTING_DATE + " ON " +
+                    WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOCATION_SETTING + ", " +
+                    WeatherEntry.COLUMN_DATE + ");";
+
+    // weather.location_setting is maintained by the database itself, so every writer (the
+    // provider, but also anything inserting rows directly) leaves it consistent.  The provider's
+    // own inserts fill it in the INSERT, the first trigger covers everybody else.
+    private static final String SQL_CREATE_WEATHER_SETTING_INSERT_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS weather_setting_insert AFTER INSERT ON " +
+                    WeatherEntry.TABLE_NAME +
+                    " WHEN NEW." + WeatherEntry.COLUMN_LOCATION_SETTING + " IS NULL BEGIN " +
+                    "UPDATE " + WeatherEntry.TABLE_NAME +
+                    " SET " + WeatherEntry.COLUMN_LOCATION_SETTING + " = (" +
+                    sqlSelectLocationSetting("NEW." + WeatherEntry.COLUMN_LOC_KEY) + ")" +
+                    " WHERE " + WeatherEntry._ID + " = NEW." + WeatherEntry._ID + "; END;";
+
+    private static final String SQL_CREATE_LOCATION_SETTING_UPDATE_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS location_setting_update AFTER UPDATE OF " +
+                    LocationEntry.COLUMN_LOCATION_SETTING + " ON " + LocationEntry.TABLE_NAME +
+                    " BEGIN " +
+                    "UPDATE " + WeatherEntry.TABLE_NAME +
+                    " SET " + WeatherEntry.COLUMN_LOCATION_SETTING +
+                    " = NEW." + LocationEntry.COLUMN_LOCATION_SETTING +
+                    " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = NEW." + LocationEntry._ID + "; END;";
+
+    private static final String SQL_CREATE_SYNC_METRICS_TABLE =
+            "CREATE TABLE IF NOT EXISTS " + SyncMetricsEntry.TABLE_NAME + " (" +
+                    // AUTOINCREMENT, so ids keep growing after the oldest rows are dropped
+                    SyncMetricsEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                    SyncMetricsEntry.COLUMN_START_TIME + " INTEGER NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_LOCATION_SETTING + " TEXT, " +
+                    SyncMetricsEntry.COLUMN_OUTCOME + " TEXT NOT NULL, " +
+                    SyncMetricsEntry.COLUMN_CONNECT_US + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_FIRST_BYTE_US + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_DOWNLOAD_US + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_DECOMPRESS_US + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_PARSE_US + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_LOCATION_US + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_WRITE_US + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_CHECKPOINT_US + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_WEARABLE_US + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_WIDGETS_US + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_MUZEI_US + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_NOTIFY_US + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_TOTAL_US + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_WIRE_BYTES + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_DECODED_BYTES + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_ROWS_INSERTED + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_ROWS_UPDATED + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_ROWS_UNCHANGED + " INTEGER NOT NULL DEFAULT 0, " +
+                    SyncMetricsEntry.COLUMN_ROWS_DELETED + " INTEGER NOT NULL DEFAULT 0);";
+
+    // Keeps the metrics table a ring of the last MAX_ROWS syncs, whoever inserts into it.
+    private static final String SQL_CREATE_SYNC_METRICS_RING_TRIGGER =
+            "CREATE TRIGGER IF NOT EXISTS sync_metrics_ring AFTER INSERT ON " +
+                    SyncMetricsEntry.TABLE_NAME + " BEGIN " +
+                    "DELETE FROM " + SyncMetricsEntry.TABLE_NAME +
+                    " WHERE " + SyncMetricsEntry._ID + " <= NEW." + SyncMetricsEntry._ID +
+                    " - " + SyncMetricsEntry.MAX_ROWS + "; END;";
+
+    /**
+     * @return a sub-select for the location setting of the location with the given id
+     */
+    static String sqlSelectLocationSetting(String locationId) {
+        return "SELECT " + LocationEntry.COLUMN_LOCATION_SETTING + " FROM " +
+                LocationEntry.TABLE_NAME + " WHERE " + LocationEntry._ID + " = " + locationId;
+    }
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Pages the write-ahead log may grow to before SQLite checkpoints on its own.  A sync
+    // writes far less than this and is followed by an explicit checkpoint(), so the automatic
+    // one only kicks in as a safety net.
+    private static final int WAL_AUTOCHECKPOINT_PAGES = 2000;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // The lists, widgets, Muzei and the sync adapter all use the database at the same time.
+        // With write-ahead logging the framework keeps a pool of reader connections next to the
+        // single writer, so queries read the last committed state instead of blocking behind a
+        // sync's write transaction.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        runPragma(db, "PRAGMA wal_autocheckpoint=" + WAL_AUTOCHECKPOINT_PAGES);
+    }
+
+    /**
+     * Copies the write-ahead log back into the database.  Called once a sync has committed;
+     * it is passive, so it never waits for readers and never makes them wait.
+     */
+    void checkpoint() {
+        runPragma(getWritableDatabase(), "PRAGMA wal_checkpoint(PASSIVE)");
+    }
+
+    // PRAGMAs that report a result have to go through rawQuery, and only run once the cursor
+    // is moved.
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -58,6 +182,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
                 // the ID of the location entry associated with this weather data
                 WeatherEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                // and its location setting, copied here by the triggers below
+                WeatherEntry.COLUMN_LOCATION_SETTING + " TEXT, " +
                 WeatherEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
                 WeatherEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
                 WeatherEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
@@ -70,6 +196,8 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
 
+                WeatherEntry.COLUMN_CONTENT_HASH + " INTEGER, " +
+
                 // Set up the location column as a foreign key to location table.
                 " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
                 LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
@@ -81,18 +209,67 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_SETTING_DATE_INDEX);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_SETTING_INSERT_TRIGGER);
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_SETTING_UPDATE_TRIGGER);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_RING_TRIGGER);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < OLDEST_MIGRATABLE_VERSION) {
+            // This database is only a cache for online data, so schemas we can't migrate are
+            // simply discarded and we start over
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + SyncMetricsEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        // Otherwise step through every version in between, keeping the data, so an upgrade
+        // doesn't leave the app blank until the next sync.  SQLiteOpenHelper runs all of
+        // this inside one transaction.
+        for (int version = oldVersion + 1; version <= newVersion; version++) {
+            migrate(sqLiteDatabase, version);
+        }
+    }
+
+    /**
+     * Brings the schema from version - 1 to the given version.
+     */
+    private void migrate(SQLiteDatabase sqLiteDatabase, int version) {
+        switch (version) {
+            case 3:
+                // content hash used by upserts; existing rows start without one
+                sqLiteDatabase.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME +
+                        " ADD COLUMN " + WeatherEntry.COLUMN_CONTENT_HASH + " INTEGER");
+                break;
+            case 4:
+                sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                break;
+            case 5:
+                // location setting copied into the weather rows
+                sqLiteDatabase.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME +
+                        " ADD COLUMN " + WeatherEntry.COLUMN_LOCATION_SETTING + " TEXT");
+                sqLiteDatabase.execSQL("UPDATE " + WeatherEntry.TABLE_NAME +
+                        " SET " + WeatherEntry.COLUMN_LOCATION_SETTING + " = (" +
+                        sqlSelectLocationSetting(WeatherEntry.TABLE_NAME + "." +
+                                WeatherEntry.COLUMN_LOC_KEY) + ")");
+                sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_SETTING_DATE_INDEX);
+                sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_SETTING_INSERT_TRIGGER);
+                sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_SETTING_UPDATE_TRIGGER);
+                break;
+            case 6:
+                sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_TABLE);
+                sqLiteDatabase.execSQL(SQL_CREATE_SYNC_METRICS_RING_TRIGGER);
+                break;
+            default:
+                throw new IllegalStateException("No migration to database version " + version);
+        }
     }
 }
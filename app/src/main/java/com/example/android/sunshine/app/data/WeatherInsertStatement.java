@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/**
+ * A weather table INSERT that is compiled once and then executed for every row of a
+ * transaction.  SQLiteDatabase.insert builds and compiles the SQL again for each row; here
+ * the values are bound straight into the compiled statement, and the date normalization
+ * reuses a single Time.  Every row gets its {@link WeatherEntry#COLUMN_CONTENT_HASH}, and its
+ * {@link WeatherEntry#COLUMN_LOCATION_SETTING} is copied from the location in the same statement,
+ * which saves the insert trigger's second write.
+ *
+ * {@link #upsert} is the change-aware variant: it looks the row up by location and date and
+ * only writes when the hash differs, updating in place so the row keeps its _ID.
+ *
+ * Rows that don't carry exactly the regular weather columns fall back to
+ * SQLiteDatabase.insert, so callers can hand any ContentValues to either method.
+ */
+class WeatherInsertStatement {
+
+    // outcomes of upsert
+    static final int FAILED = -1;
+    static final int UNCHANGED = 0;
+    static final int INSERTED = 1;
+    static final int UPDATED = 2;
+
+    private static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    // the position of the date among the bind arguments (1-based, like bindLong)
+    private static final int DATE_INDEX = 2;
+
+    // The first two columns are the row's key, the others are what the content hash covers
+    private static final int FIRST_CONTENT_COLUMN = 2;
+
+    private static final String SQL_INSERT;
+    private static final String SQL_UPDATE;
+
+    private static final String SQL_SELECT_ID = "SELECT " + WeatherEntry._ID +
+            " FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?";
+
+    private static final String SQL_SELECT_HASH = "SELECT " + WeatherEntry.COLUMN_CONTENT_HASH +
+            " FROM " + WeatherEntry.TABLE_NAME + " WHERE " + WeatherEntry._ID + " = ?";
+
+    static {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(WeatherEntry.TABLE_NAME).append(" (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append(COLUMNS[i]).append(",");
+        }
+        sql.append(WeatherEntry.COLUMN_CONTENT_HASH).append(",")
+                .append(WeatherEntry.COLUMN_LOCATION_SETTING).append(") VALUES (");
+        for (int i = 0; i < COLUMNS.length; i++) {
+            sql.append("?,");
+        }
+        // ?1 is the location id bound for the first column
+        SQL_INSERT = sql.append("?,(")
+                .append(WeatherDbHelper.sqlSelectLocationSetting("?1")).append("))").toString();
+
+        sql = new StringBuilder("UPDATE ").append(WeatherEntry.TABLE_NAME).append(" SET ");
+        for (int i = FIRST_CONTENT_COLUMN; i < COLUMNS.length; i++) {
+            sql.append(COLUMNS[i]).append("=?,");
+        }
+        sql.append(WeatherEntry.COLUMN_CONTENT_HASH).append("=? WHERE ")
+                .append(WeatherEntry._ID).append("=?");
+        SQL_UPDATE = sql.toString();
+    }
+
+    private final SQLiteDatabase mDb;
+    private final SQLiteStatement mStatement;
+    private final Time mTime = new Time();
+
+    // only compiled once an upsert comes along
+    private SQLiteStatement mSelectId;
+    private SQLiteStatement mSelectHash;
+    private SQLiteStatement mUpdate;
+
+    private long mLastRowId = -1;
+
+    WeatherInsertStatement(SQLiteDatabase db) {
+        mDb = db;
+        mStatement = db.compileStatement(SQL_INSERT);
+    }
+
+    /**
+     * Inserts one weather row, normalizing its date.
+     *
+     * @return the row ID of the inserted row, or -1 if it could not be inserted
+     */
+    long insert(ContentValues values) {
+        if (!hasRegularColumns(values)) {
+            if (values.containsKey(WeatherEntry.COLUMN_DATE)) {
+                values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(mTime,
+                        values.getAsLong(WeatherEntry.COLUMN_DATE)));
+            }
+            if (!values.containsKey(WeatherEntry.COLUMN_CONTENT_HASH)) {
+                values.put(WeatherEntry.COLUMN_CONTENT_HASH, contentHash(values));
+            }
+            return mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+        }
+
+        mStatement.clearBindings();
+        mStatement.bindLong(1, values.getAsLong(WeatherEntry.COLUMN_LOC_KEY));
+        mStatement.bindLong(DATE_INDEX, normalizedDate(values));
+        bindContent(mStatement, FIRST_CONTENT_COLUMN + 1, values);
+        try {
+            return mStatement.executeInsert();
+        } catch (SQLException e) {
+            // match SQLiteDatabase.insert, which reports a failed row as -1
+            return -1;
+        }
+    }
+
+    /**
+     * Writes one weather row unless the stored row for the same location and date already
+     * holds the same forecast.  An existing row is updated in place and keeps its _ID.
+     *
+     * @return one of {@link #INSERTED}, {@link #UPDATED}, {@link #UNCHANGED} or {@link #FAILED};
+     * the row's ID is available from {@link #getLastRowId()} afterwards
+     */
+    int upsert(ContentValues values) {
+        if (!hasRegularColumns(values)) {
+            mLastRowId = insert(values);
+            return mLastRowId == -1 ? FAILED : INSERTED;
+        }
+
+        if (mSelectId == null) {
+            mSelectId = mDb.compileStatement(SQL_SELECT_ID);
+            mSelectHash = mDb.compileStatement(SQL_SELECT_HASH);
+            mUpdate = mDb.compileStatement(SQL_UPDATE);
+        }
+
+        long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        long date = normalizedDate(values);
+
+        mSelectId.bindLong(1, locationId);
+        mSelectId.bindLong(2, date);
+        long rowId;
+        try {
+            rowId = mSelectId.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            mLastRowId = insert(values);
+            return mLastRowId == -1 ? FAILED : INSERTED;
+        }
+        mLastRowId = rowId;
+
+        // a NULL hash (the row was changed through update) reads as 0, which never matches
+        mSelectHash.bindLong(1, rowId);
+        if (mSelectHash.simpleQueryForLong() == contentHash(values)) {
+            return UNCHANGED;
+        }
+
+        mUpdate.clearBindings();
+        int index = bindContent(mUpdate, 1, values);
+        mUpdate.bindLong(index, rowId);
+        try {
+            return mUpdate.executeUpdateDelete() > 0 ? UPDATED : FAILED;
+        } catch (SQLException e) {
+            return FAILED;
+        }
+    }
+
+    long getLastRowId() {
+        return mLastRowId;
+    }
+
+    void close() {
+        mStatement.close();
+        if (mSelectId != null) {
+            mSelectId.close();
+            mSelectHash.close();
+            mUpdate.close();
+        }
+    }
+
+    /**
+     * Hash over the forecast columns of a row (everything but the location and date that key
+     * it).  Never 0, so it can't collide with a NULL read back through simpleQueryForLong.
+     */
+    static long contentHash(ContentValues values) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = FIRST_CONTENT_COLUMN; i < COLUMNS.length; i++) {
+            Object value = values.get(COLUMNS[i]);
+            long bits;
+            if (value instanceof Double || value instanceof Float) {
+                bits = Double.doubleToLongBits(((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                // so that 75 and 75.0 hash the same
+                bits = Double.doubleToLongBits(((Number) value).longValue());
+            } else if (value != null) {
+                bits = value.toString().hashCode();
+            } else {
+                bits = 0;
+            }
+            hash = (hash ^ bits) * 0x100000001b3L;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private long normalizedDate(ContentValues values) {
+        return WeatherContract.normalizeDate(mTime, values.getAsLong(WeatherEntry.COLUMN_DATE));
+    }
+
+    // Binds the content columns and their hash starting at the given index, returns the next
+    // free index.
+    private static int bindContent(SQLiteStatement statement, int index, ContentValues values) {
+        for (int i = FIRST_CONTENT_COLUMN; i < COLUMNS.length; i++, index++) {
+            Object value = values.get(COLUMNS[i]);
+            if (value instanceof Double || value instanceof Float) {
+                statement.bindDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Number) {
+                statement.bindLong(index, ((Number) value).longValue());
+            } else {
+                statement.bindString(index, value.toString());
+            }
+        }
+        statement.bindLong(index, contentHash(values));
+        return index + 1;
+    }
+
+    private static boolean hasRegularColumns(ContentValues values) {
+        if (values.size() != COLUMNS.length) {
+            return false;
+        }
+        for (String column : COLUMNS) {
+            if (values.get(column) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
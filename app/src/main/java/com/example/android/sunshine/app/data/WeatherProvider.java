@@ -17,12 +17,26 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,10 +44,40 @@ public class WeatherProvider extends ContentProvider {
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // Rows of the recent by-location weather queries.
+    private final ForecastCursorCache mCache = new ForecastCursorCache();
+
+    // Latencies and row counts of the calls below, for the provider_stats URI.
+    private final ProviderStats mStats = new ProviderStats();
+
+    // State of the batch being applied on the current thread, if any.
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<>();
+
+    /**
+     * What applyBatch keeps while its operations run: the URIs and weather rows they touch,
+     * which are collected instead of being notified one by one, whether they make every cached
+     * query stale, and a weather INSERT compiled once for the whole transaction.
+     */
+    private static final class Batch {
+        final Set<Uri> pendingNotifications = new LinkedHashSet<>();
+        final WeatherChanges weatherChanges = new WeatherChanges();
+        boolean allLocationsStale;
+        WeatherInsertStatement weatherInsert;
+
+        WeatherInsertStatement getWeatherInsert(SQLiteDatabase db) {
+            if (weatherInsert == null) {
+                weatherInsert = new WeatherInsertStatement(db);
+            }
+            return weatherInsert;
+        }
+    }
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int SYNC_METRICS = 400;
+    static final int PROVIDER_STATS = 500;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
@@ -51,6 +95,36 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    // Columns that can be read from the weather table alone.  Weather rows carry their own copy
+    // of the location setting, so a projection made of these skips the join entirely.
+    private static final Set<String> sWeatherOnlyColumns = new HashSet<>(Arrays.asList(
+            WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES));
+
+    //weather.location_setting = ?
+    private static final String sWeatherSettingSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOCATION_SETTING + " = ? ";
+
+    //weather.location_setting = ? AND date >= ?
+    private static final String sWeatherSettingWithStartDateSelection =
+            sWeatherSettingSelection + "AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //weather.location_setting = ? AND date = ?
+    private static final String sWeatherSettingAndDaySelection =
+            sWeatherSettingSelection + "AND " + WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
     //location.location_setting = ?
     private static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
@@ -75,22 +149,18 @@ public class WeatherProvider extends ContentProvider {
         String[] selectionArgs;
         String selection;
 
+        boolean weatherOnly = isWeatherOnly(projection);
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
+            selection = weatherOnly ? sWeatherSettingSelection : sLocationSettingSelection;
             selectionArgs = new String[]{locationSetting};
         } else {
             selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            selection = weatherOnly
+                    ? sWeatherSettingWithStartDateSelection
+                    : sLocationSettingWithStartDateSelection;
         }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        return queryByLocationSetting(weatherOnly, projection, selection, selectionArgs, sortOrder);
     }
 
     private Cursor getWeatherByLocationSettingAndDate(
@@ -98,16 +168,81 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                sLocationSettingAndDaySelection,
+        boolean weatherOnly = isWeatherOnly(projection);
+        return queryByLocationSetting(weatherOnly, projection,
+                weatherOnly ? sWeatherSettingAndDaySelection : sLocationSettingAndDaySelection,
                 new String[]{locationSetting, Long.toString(date)},
+                sortOrder);
+    }
+
+    private Cursor queryByLocationSetting(boolean weatherOnly, String[] projection,
+            String selection, String[] selectionArgs, String sortOrder) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        if (weatherOnly) {
+            return db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    projection,
+                    selection,
+                    selectionArgs,
+                    null,
+                    null,
+                    sortOrder
+            );
+        }
+        return sWeatherByLocationSettingQueryBuilder.query(db,
+                qualifyLocationSetting(projection),
+                selection,
+                selectionArgs,
                 null,
                 null,
                 sortOrder
         );
     }
 
+    /**
+     * @return whether every column of the projection lives in the weather table.  A null
+     * projection asks for the location columns too, so it needs the join.
+     */
+    private static boolean isWeatherOnly(String[] projection) {
+        if (projection == null) {
+            return false;
+        }
+        for (String column : projection) {
+            if (!sWeatherOnlyColumns.contains(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // What a null projection reads from the join: every column of both tables, but the location
+    // setting only once, since both tables have it.
+    private static final String[] sJoinAllColumns = {
+            WeatherContract.WeatherEntry.TABLE_NAME + ".*",
+            WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // Both tables of the join have a location_setting column now, so an unqualified one in the
+    // projection is resolved to the location's.
+    private static String[] qualifyLocationSetting(String[] projection) {
+        if (projection == null) {
+            return sJoinAllColumns;
+        }
+        String[] qualified = null;
+        for (int i = 0; i < projection.length; i++) {
+            if (WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING.equals(projection[i])) {
+                if (qualified == null) {
+                    qualified = projection.clone();
+                }
+                qualified[i] = WeatherContract.LocationEntry.TABLE_NAME + "." +
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING;
+            }
+        }
+        return qualified != null ? qualified : projection;
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +265,8 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_SYNC_METRICS, SYNC_METRICS);
+        matcher.addURI(authority, WeatherContract.PATH_PROVIDER_STATS, PROVIDER_STATS);
         return matcher;
     }
 
@@ -164,6 +301,10 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case SYNC_METRICS:
+                return WeatherContract.SyncMetricsEntry.CONTENT_TYPE;
+            case PROVIDER_STATS:
+                return WeatherContract.ProviderStatsEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -172,19 +313,54 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final int match = sUriMatcher.match(uri);
+        if (match == PROVIDER_STATS) {
+            // not counted itself, so reading the stats doesn't change them
+            return mStats.toCursor();
+        }
+        long start = ProviderStats.begin();
+        String caller = WeatherContract.ProviderStatsEntry.getCallerFromUri(uri);
+        Cursor retCursor = query(match, removeCaller(uri, caller), projection, selection,
+                selectionArgs, sortOrder);
+        // A database cursor only runs its query once it is read.  Counting its rows here runs
+        // it inside the call, as handing it to another process would anyway.
+        mStats.record(ProviderStats.QUERY, match, caller, start, retCursor.getCount());
+        return retCursor;
+    }
+
+    private Cursor query(int match, Uri uri, String[] projection, String selection,
+                         String[] selectionArgs, String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                String key = ForecastCursorCache.getKey(WEATHER_WITH_LOCATION_AND_DATE,
+                        uri.toString(), projection, sortOrder);
+                retCursor = mCache.get(key);
+                if (retCursor == null) {
+                    long generation = mCache.getGeneration();
+                    retCursor = mCache.put(key,
+                            WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                            getWeatherByLocationSettingAndDate(uri, projection, sortOrder),
+                            generation);
+                }
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                String key = ForecastCursorCache.getKey(WEATHER_WITH_LOCATION,
+                        uri.toString(), projection, sortOrder);
+                retCursor = mCache.get(key);
+                if (retCursor == null) {
+                    long generation = mCache.getGeneration();
+                    retCursor = mCache.put(key,
+                            WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                            getWeatherByLocationSetting(uri, projection, sortOrder),
+                            generation);
+                }
                 break;
             }
             // "weather"
@@ -213,6 +389,19 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "sync_metrics"
+            case SYNC_METRICS: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -226,18 +415,47 @@ public class WeatherProvider extends ContentProvider {
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        long start = ProviderStats.begin();
+        String caller = WeatherContract.ProviderStatsEntry.getCallerFromUri(uri);
+        Uri returnUri = insert(match, removeCaller(uri, caller), values);
+        mStats.record(ProviderStats.INSERT, match, caller, start, 1);
+        return returnUri;
+    }
+
+    private Uri insert(int match, Uri uri, ContentValues values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         Uri returnUri;
+        boolean changed = true;
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                Batch batch = mBatch.get();
+                WeatherInsertStatement statement = batch != null
+                        ? batch.getWeatherInsert(db) : new WeatherInsertStatement(db);
+                try {
+                    if (WeatherContract.WeatherEntry.isUpsertUri(uri)) {
+                        int outcome = statement.upsert(values);
+                        if (outcome == WeatherInsertStatement.FAILED)
+                            throw new android.database.SQLException("Failed to upsert row into " + uri);
+                        returnUri = WeatherContract.WeatherEntry.buildWeatherUri(statement.getLastRowId())
+                                .buildUpon()
+                                .appendQueryParameter(WeatherContract.WeatherEntry.PARAM_UPSERT,
+                                        getUpsertResult(outcome))
+                                .build();
+                        changed = outcome != WeatherInsertStatement.UNCHANGED;
+                    } else {
+                        long _id = statement.insert(values);
+                        if ( _id > 0 )
+                            returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
+                        else
+                            throw new android.database.SQLException("Failed to insert row into " + uri);
+                    }
+                } finally {
+                    if (batch == null) {
+                        statement.close();
+                    }
+                }
                 break;
             }
             case LOCATION: {
@@ -248,35 +466,89 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case SYNC_METRICS: {
+                // the table's trigger drops the oldest row once it is full
+                long _id = db.insert(WeatherContract.SyncMetricsEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = ContentUris.withAppendedId(uri, _id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        if (!changed) {
+            return returnUri;
+        }
+        if (match == WEATHER) {
+            WeatherChanges changes = getWeatherChanges();
+            changes.add(values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                    values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+            publishWeatherChanges(changes);
+        } else {
+            notifyChange(uri);
+        }
         return returnUri;
     }
 
+    private static String getUpsertResult(int outcome) {
+        switch (outcome) {
+            case WeatherInsertStatement.INSERTED:
+                return WeatherContract.WeatherEntry.UPSERT_INSERTED;
+            case WeatherInsertStatement.UPDATED:
+                return WeatherContract.WeatherEntry.UPSERT_UPDATED;
+            default:
+                return WeatherContract.WeatherEntry.UPSERT_UNCHANGED;
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        if (match == PROVIDER_STATS) {
+            return mStats.reset();
+        }
+        long start = ProviderStats.begin();
+        String caller = WeatherContract.ProviderStatsEntry.getCallerFromUri(uri);
+        int rowsDeleted = delete(match, removeCaller(uri, caller), selection, selectionArgs);
+        mStats.record(ProviderStats.DELETE, match, caller, start, rowsDeleted);
+        return rowsDeleted;
+    }
+
+    private int delete(int match, Uri uri, String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
+                WeatherChanges changes = getWeatherChanges();
+                addMatchingRows(changes, db, selection, selectionArgs);
                 rowsDeleted = db.delete(
                         WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+                if (rowsDeleted != 0) {
+                    publishWeatherChanges(changes);
+                }
+                return rowsDeleted;
+            }
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    invalidateAllLocations();
+                }
+                break;
+            case SYNC_METRICS:
+                rowsDeleted = db.delete(
+                        WeatherContract.SyncMetricsEntry.TABLE_NAME, selection, selectionArgs);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
@@ -292,56 +564,282 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        long start = ProviderStats.begin();
+        String caller = WeatherContract.ProviderStatsEntry.getCallerFromUri(uri);
+        int rowsUpdated = update(match, removeCaller(uri, caller), values, selection,
+                selectionArgs);
+        mStats.record(ProviderStats.UPDATE, match, caller, start, rowsUpdated);
+        return rowsUpdated;
+    }
+
+    private int update(
+            int match, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            case WEATHER: {
                 normalizeDate(values);
+                if (!values.containsKey(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH)) {
+                    // the stored hash no longer describes the row; the next upsert rewrites it
+                    values.putNull(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH);
+                }
+                WeatherChanges changes = getWeatherChanges();
+                boolean movesRows =
+                        values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                        || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (movesRows) {
+                    // rows moved to another location or date: the days they leave and the ones
+                    // they land on are both affected
+                    addMatchingLocations(changes, db, selection, selectionArgs);
+                    changes.addLocation(values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                } else {
+                    addMatchingRows(changes, db, selection, selectionArgs);
+                }
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
-                break;
+                if (rowsUpdated != 0) {
+                    publishWeatherChanges(changes);
+                }
+                return rowsUpdated;
+            }
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                if (rowsUpdated != 0) {
+                    // cached joins carry location columns
+                    invalidateAllLocations();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
-        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
+        long start = ProviderStats.begin();
+        String caller = WeatherContract.ProviderStatsEntry.getCallerFromUri(uri);
+        // outside of weather this is one insert per row, and each of those is counted too
+        int returnCount = bulkInsert(match, removeCaller(uri, caller), values);
+        mStats.record(ProviderStats.BULK_INSERT, match, caller, start, returnCount);
+        return returnCount;
+    }
+
+    private int bulkInsert(int match, Uri uri, ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
+                // In upsert mode the count is the number of rows actually written, and
+                // observers are only told about those.
+                boolean upsert = WeatherContract.WeatherEntry.isUpsertUri(uri);
+                db.beginTransactionNonExclusive();
                 int returnCount = 0;
+                WeatherChanges changes = getWeatherChanges();
+                // compiled once for the transaction rather than once per row
+                WeatherInsertStatement insert = new WeatherInsertStatement(db);
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
+                        boolean written;
+                        if (upsert) {
+                            int outcome = insert.upsert(value);
+                            written = outcome == WeatherInsertStatement.INSERTED
+                                    || outcome == WeatherInsertStatement.UPDATED;
+                        } else {
+                            written = insert.insert(value) != -1;
+                        }
+                        if (written) {
                             returnCount++;
+                            changes.add(value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                                    value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    insert.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                publishWeatherChanges(changes);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies all operations inside a single SQLite transaction.  Observers are not told about
+     * the individual writes; once the transaction has committed, every distinct URI touched by
+     * the batch is notified exactly once, so nobody ever sees a half-applied batch.  A location
+     * whose forecast changed on several days is notified once, on its weather/&lt;location&gt;
+     * URI.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        final Batch batch = new Batch();
+        final ContentProviderResult[] results;
+        mBatch.set(batch);
+        db.beginTransactionNonExclusive();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            if (batch.weatherInsert != null) {
+                batch.weatherInsert.close();
+            }
+            db.endTransaction();
+            mBatch.remove();
+        }
+        // only now can readers see the batch, so only now can the cache be refilled from it
+        if (batch.allLocationsStale) {
+            mCache.invalidateAll();
+        }
+        publishWeatherChanges(batch.weatherChanges);
+        for (Uri uri : batch.pendingNotifications) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return results;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.METHOD_CHECKPOINT.equals(method)) {
+            mOpenHelper.checkpoint();
+            return null;
+        }
+        if (WeatherContract.METHOD_GET_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            stats.putLong(WeatherContract.KEY_CACHE_HITS, mCache.getHitCount());
+            stats.putLong(WeatherContract.KEY_CACHE_MISSES, mCache.getMissCount());
+            return stats;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    // Adds the location and date of every weather row matching the selection.
+    private static void addMatchingRows(WeatherChanges changes, SQLiteDatabase db,
+                                        String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                changes.add(cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Adds, as a whole, every location with weather rows matching the selection.
+    private static void addMatchingLocations(WeatherChanges changes, SQLiteDatabase db,
+                                             String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                changes.addLocation(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return where the current write records the weather rows it changes: the batch's
+     * collection when a batch is being applied, otherwise a fresh one
+     */
+    private WeatherChanges getWeatherChanges() {
+        Batch batch = mBatch.get();
+        return batch != null ? batch.weatherChanges : new WeatherChanges();
+    }
+
+    /**
+     * Drops the cached queries of the changed locations and notifies the weather URIs of the
+     * changed rows: weather/&lt;location&gt;/&lt;date&gt; when a single day of a location
+     * changed, weather/&lt;location&gt; otherwise.  Observers of weather itself hear about all
+     * of these through notifyForDescendants.  Inside a batch this waits for the commit.
+     */
+    private void publishWeatherChanges(WeatherChanges changes) {
+        if (mBatch.get() != null) {
+            return;
+        }
+        if (changes.isEmpty()) {
+            return;
+        }
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        Set<String> locationSettings = new HashSet<>();
+        List<Uri> uris = new ArrayList<>();
+        for (long locationId : changes.getLocationIds()) {
+            String locationSetting;
+            try {
+                locationSetting = DatabaseUtils.stringForQuery(db,
+                        WeatherDbHelper.sqlSelectLocationSetting("?"),
+                        new String[]{Long.toString(locationId)});
+            } catch (SQLiteDoneException e) {
+                // rows of an unknown location can only be seen through weather itself
+                uris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+                continue;
+            }
+            locationSettings.add(locationSetting);
+            long date = changes.getOnlyDate(locationId);
+            uris.add(date != -1
+                    ? WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationSetting, date)
+                    : WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting));
+        }
+        mCache.invalidate(locationSettings);
+        for (Uri uri : new LinkedHashSet<>(uris)) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    private void invalidateAllLocations() {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.allLocationsStale = true;
+        } else {
+            mCache.invalidateAll();
+        }
+    }
+
+    /**
+     * @return the URI without its caller tag, so that tagged and untagged calls share cached
+     * queries and notifications
+     */
+    private static Uri removeCaller(Uri uri, String caller) {
+        if (caller == null) {
+            return uri;
+        }
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (WeatherContract.ProviderStatsEntry.PARAM_CALLER.equals(name)) {
+                continue;
+            }
+            for (String value : uri.getQueryParameters(name)) {
+                builder.appendQueryParameter(name, value);
+            }
+        }
+        return builder.build();
+    }
+
+    private void notifyChange(Uri uri) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.pendingNotifications.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
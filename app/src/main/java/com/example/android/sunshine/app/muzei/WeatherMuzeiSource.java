@@ -57,8 +57,10 @@ public class WeatherMuzeiSource extends MuzeiArtSource {
         String location = Utility.getPreferredLocation(this);
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 location, System.currentTimeMillis());
-        Cursor cursor = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        Cursor cursor = getContentResolver().query(
+                WeatherContract.ProviderStatsEntry.withCaller(weatherForLocationUri,
+                        WeatherContract.ProviderStatsEntry.CALLER_MUZEI),
+                FORECAST_COLUMNS, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
         if (cursor.moveToFirst()) {
             int weatherId = cursor.getInt(INDEX_WEATHER_ID);
             String desc = cursor.getString(INDEX_SHORT_DESC);
@@ -0,0 +1,242 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast response.
+ *
+ * The payload is read token by token straight off the connection stream, so neither the raw
+ * JSON string nor a JSONObject tree is ever held in memory.  Each element of the "list" array
+ * becomes a weather ContentValues as soon as its object is closed, which keeps the peak
+ * allocation of a sync close to the size of the rows that end up being written.
+ */
+class ForecastParser {
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * Everything pulled out of one forecast response.  The day rows carry every weather column
+     * except {@link WeatherEntry#COLUMN_LOC_KEY}, which is only known once the city has been
+     * resolved against the location table.
+     */
+    static final class Forecast {
+        int messageCode = HttpURLConnection.HTTP_OK;
+        String cityName;
+        double cityLatitude;
+        double cityLongitude;
+        final ArrayList<ContentValues> days = new ArrayList<>();
+    }
+
+    private ForecastParser() {
+    }
+
+    /**
+     * Parses a forecast response.
+     *
+     * @param in the response body, positioned at the first byte
+     * @param julianStartDay Julian day of the first element in the "list" array
+     * @return the parsed forecast
+     * @throws MalformedJsonException if the payload is not the expected JSON
+     * @throws IOException if the stream could not be read, including an empty stream
+     */
+    static Forecast parse(InputStream in, int julianStartDay) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readForecast(reader, julianStartDay);
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader reports unexpected token types with unchecked exceptions
+            MalformedJsonException malformed = new MalformedJsonException(e.getMessage());
+            malformed.initCause(e);
+            throw malformed;
+        }
+    }
+
+    private static Forecast readForecast(JsonReader reader, int julianStartDay)
+            throws IOException {
+        Forecast forecast = new Forecast();
+
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        Time dayTime = new Time();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                forecast.messageCode = reader.nextInt();
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, forecast);
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    long dateTime = dayTime.setJulianDay(julianStartDay + forecast.days.size());
+                    forecast.days.add(readDay(reader, dateTime));
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return forecast;
+    }
+
+    private static void readCity(JsonReader reader, Forecast forecast) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.cityLatitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.cityLongitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static ContentValues readDay(JsonReader reader, long dateTime) throws IOException {
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+
+        double high = 0;
+        double low = 0;
+        boolean hasHigh = false;
+        boolean hasLow = false;
+
+        String description = null;
+        int weatherId = 0;
+        boolean hasWeatherId = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                humidity = reader.nextInt();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String tempName = reader.nextName();
+                    if (OWM_MAX.equals(tempName)) {
+                        high = reader.nextDouble();
+                        hasHigh = true;
+                    } else if (OWM_MIN.equals(tempName)) {
+                        low = reader.nextDouble();
+                        hasLow = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                boolean first = true;
+                while (reader.hasNext()) {
+                    if (!first) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    first = false;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            description = reader.nextString();
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherId = reader.nextInt();
+                            hasWeatherId = true;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (description == null || !hasWeatherId) {
+            throw new MalformedJsonException("Forecast day without a weather condition");
+        }
+        if (!hasHigh || !hasLow) {
+            throw new MalformedJsonException("Forecast day without a high and a low temperature");
+        }
+
+        ContentValues weatherValues = new ContentValues();
+
+        weatherValues.put(WeatherEntry.COLUMN_DATE, dateTime);
+        weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherEntry.COLUMN_PRESSURE, pressure);
+        weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        weatherValues.put(WeatherEntry.COLUMN_DEGREES, windDirection);
+        weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, description);
+        weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        return weatherValues;
+    }
+}
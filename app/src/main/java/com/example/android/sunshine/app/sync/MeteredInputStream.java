@@ -0,0 +1,86 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream that counts the bytes handed out to its reader, and the time spent waiting on
+ * the stream underneath.
+ *
+ * It adds no buffering of its own: on top of the socket it sees how many bytes actually crossed
+ * the radio, and on top of the decoder the reader above it does the buffering.
+ *
+ * The forecast is parsed straight off the stream, so downloading, decompressing and parsing
+ * happen interleaved; the read times are what tells them apart afterwards.
+ */
+class MeteredInputStream extends FilterInputStream {
+
+    private long mCount;
+    private long mReadNanos;
+
+    MeteredInputStream(InputStream in) {
+        super(in);
+    }
+
+    /**
+     * @return the number of bytes read from this stream so far
+     */
+    long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the time spent in reads of the underlying stream so far, in nanoseconds
+     */
+    long getReadNanos() {
+        return mReadNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        long start = System.nanoTime();
+        int b = in.read();
+        mReadNanos += System.nanoTime() - start;
+        if (b != -1) {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        int n = in.read(b, off, len);
+        mReadNanos += System.nanoTime() - start;
+        if (n > 0) {
+            mCount += n;
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long start = System.nanoTime();
+        long skipped = in.skip(n);
+        mReadNanos += System.nanoTime() - start;
+        if (skipped > 0) {
+            mCount += skipped;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
@@ -7,11 +7,13 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -22,12 +24,14 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
+import android.util.MalformedJsonException;
 
 import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.BuildConfig;
@@ -36,29 +40,25 @@ import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.example.android.sunshineshared.WeatherConstants;
+import com.example.android.sunshineshared.ForecastPayload;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -95,6 +95,19 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
 
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+
+    // Size of the decoder's input buffer.  A forecast is decompressed in chunks of at most
+    // this many bytes, however large the payload is.
+    private static final int DOWNLOAD_BUFFER_SIZE = 8 * 1024;
+
     private final GoogleApiClient mGoogleApiClient;
 
 
@@ -126,14 +139,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
         String locationQuery = Utility.getPreferredLocation(getContext());
+        SyncMetrics metrics = new SyncMetrics(locationQuery);
 
-        // These two need to be declared outside the try/catch
+        // These need to be declared outside the try/catch
         // so that they can be closed in the finally block.
         HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        InputStream inputStream = null;
+        Inflater inflater = null;
+        MeteredInputStream wireStream = null;
+        MeteredInputStream decodedStream = null;
 
         String format = "json";
         String units = "metric";
@@ -164,253 +178,376 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
             // Create the request to OpenWeatherMap, and open the connection
             urlConnection = (HttpURLConnection) url.openConnection();
             urlConnection.setRequestMethod("GET");
+            // Asking for an encoding ourselves turns off the platform's transparent gzip
+            // handling, which is what lets us see the bytes that actually came over the wire.
+            urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP + ", " + ENCODING_DEFLATE);
+            addConditionalHeaders(urlConnection, locationQuery);
+            long phase = SyncMetrics.begin();
             urlConnection.connect();
+            metrics.end(SyncMetrics.PHASE_CONNECT, phase);
+
+            phase = SyncMetrics.begin();
+            int responseCode = urlConnection.getResponseCode();
+            metrics.end(SyncMetrics.PHASE_FIRST_BYTE, phase);
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // The forecast we already hold is current: nothing to parse, write or fan out.
+                Log.d(LOG_TAG, "Sync Complete. Forecast not modified");
+                metrics.setOutcome(WeatherContract.SyncMetricsEntry.OUTCOME_NOT_MODIFIED);
+                saveSyncTime(getContext(), locationQuery, System.currentTimeMillis());
+                setLocationStatus(getContext(), LOCATION_STATUS_OK);
+                return;
+            }
+            String eTag = urlConnection.getHeaderField(HEADER_ETAG);
+            String lastModified = urlConnection.getHeaderField(HEADER_LAST_MODIFIED);
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
+            InputStream rawStream = urlConnection.getInputStream();
+            if (rawStream == null) {
                 // Nothing to do.
                 return;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            wireStream = new MeteredInputStream(rawStream);
+            String contentEncoding = urlConnection.getContentEncoding();
+            if (ENCODING_GZIP.equalsIgnoreCase(contentEncoding)) {
+                rawStream = new GZIPInputStream(wireStream, DOWNLOAD_BUFFER_SIZE);
+            } else if (ENCODING_DEFLATE.equalsIgnoreCase(contentEncoding)) {
+                // "deflate" means zlib-wrapped data, but some servers send it raw
+                PushbackInputStream peekStream = new PushbackInputStream(wireStream, 2);
+                inflater = new Inflater(!hasZlibHeader(peekStream));
+                rawStream = new InflaterInputStream(peekStream, inflater, DOWNLOAD_BUFFER_SIZE);
+            } else {
+                rawStream = wireStream;
             }
+            decodedStream = new MeteredInputStream(rawStream);
+            inputStream = decodedStream;
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            // OWM returns daily forecasts based upon the local time of the city that is being
+            // asked for, which means that we need to know the GMT offset to translate this data
+            // properly.
+
+            // Since this data is also sent in-order and the first day is always the
+            // current day, we're going to take advantage of that to get a nice
+            // normalized UTC date for all of our weather.
+
+            Time dayTime = new Time();
+            dayTime.setToNow();
+
+            // we start at the day returned by local time. Otherwise this is a mess.
+            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+            // Parse straight off the stream; the day rows come out ready for the insert batch.
+            // An empty stream surfaces here as an EOFException.
+            phase = SyncMetrics.begin();
+            ForecastParser.Forecast forecast = ForecastParser.parse(inputStream, julianStartDay);
+            long parseNanos = System.nanoTime() - phase;
+            // The parser pulls the download through the decoder as it goes, so the time spent
+            // in each stream's reads is taken off the stage above it.
+            long wireNanos = wireStream.getReadNanos();
+            long decodedNanos = decodedStream.getReadNanos();
+            metrics.add(SyncMetrics.PHASE_DOWNLOAD, wireNanos);
+            metrics.add(SyncMetrics.PHASE_DECOMPRESS, decodedNanos - wireNanos);
+            metrics.add(SyncMetrics.PHASE_PARSE, parseNanos - decodedNanos);
+            if (getWeatherDataFromForecast(forecast, locationQuery, julianStartDay, syncResult,
+                    metrics)) {
+                // Only remember the validators once the data they describe is in the database
+                saveValidators(getContext(), locationQuery, eTag, lastModified);
+                metrics.setOutcome(WeatherContract.SyncMetricsEntry.OUTCOME_UPDATED);
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+        } catch (MalformedJsonException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
         } finally {
+            if (decodedStream != null) {
+                Log.d(LOG_TAG, "Downloaded " + wireStream.getCount() + " bytes, "
+                        + decodedStream.getCount() + " bytes decoded");
+                metrics.setBytes(wireStream.getCount(), decodedStream.getCount());
+            }
             if (urlConnection != null) {
                 urlConnection.disconnect();
             }
-            if (reader != null) {
+            if (inputStream != null) {
                 try {
-                    reader.close();
+                    inputStream.close();
                 } catch (final IOException e) {
                     Log.e(LOG_TAG, "Error closing stream", e);
                 }
             }
+            if (inflater != null) {
+                inflater.end();
+            }
+            metrics.write(getContext());
         }
         return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Looks at the first two bytes of a deflate body without consuming them.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * @return whether they are a zlib header, rather than the start of raw deflate data
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+    private static boolean hasZlibHeader(PushbackInputStream in) throws IOException {
+        byte[] header = new byte[2];
+        int length = 0;
+        int n;
+        while (length < header.length && (n = in.read(header, length, header.length - length)) > 0) {
+            length += n;
+        }
+        if (length > 0) {
+            in.unread(header, 0, length);
+        }
+        if (length < header.length) {
+            return false;
+        }
+        int cmf = header[0] & 0xff;
+        int flg = header[1] & 0xff;
+        // compression method 8 is deflate, and the two bytes together are a multiple of 31
+        return (cmf & 0x0f) == 8 && ((cmf << 8) | flg) % 31 == 0;
+    }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    /**
+     * Adds If-None-Match / If-Modified-Since headers from the last successful download for
+     * this location, so an unchanged forecast comes back as an empty 304.  The validators are
+     * only sent while today's row for the location is still in the database; otherwise we
+     * would keep getting 304s for data we no longer have.
+     */
+    private void addConditionalHeaders(HttpURLConnection urlConnection, String locationSetting) {
+        Context context = getContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String eTag = prefs.getString(
+                context.getString(R.string.pref_forecast_etag_key) + locationSetting, null);
+        String lastModified = prefs.getString(
+                context.getString(R.string.pref_forecast_last_modified_key) + locationSetting, null);
+        if (eTag == null && lastModified == null) {
+            return;
+        }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+        Uri todayUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = context.getContentResolver().query(
+                withSyncCaller(todayUri),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        boolean haveToday = cursor != null && cursor.moveToFirst();
+        if (cursor != null) {
+            cursor.close();
+        }
+        if (!haveToday) {
+            return;
+        }
 
-        final String OWM_MESSAGE_CODE = "cod";
+        if (eTag != null) {
+            urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, eTag);
+        }
+        if (lastModified != null) {
+            urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+    }
 
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
-            }
+    /**
+     * @return when the forecast for the location was last downloaded or found unchanged, or 0
+     * if it never was
+     */
+    static long getLastSyncTime(Context c, String locationSetting) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        return sp.getLong(c.getString(R.string.pref_forecast_synced_key) + locationSetting, 0);
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+    /**
+     * @return the location of the last successful sync, or null if there was none
+     */
+    static String getLastSyncedLocation(Context c) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        return sp.getString(c.getString(R.string.pref_last_synced_location_key), null);
+    }
 
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
+    static private void saveSyncTime(Context c, String locationSetting, long syncTime) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        sp.edit()
+                .putLong(c.getString(R.string.pref_forecast_synced_key) + locationSetting, syncTime)
+                .putString(c.getString(R.string.pref_last_synced_location_key), locationSetting)
+                .commit();
+    }
 
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+    /**
+     * Stores the validators of a forecast that has been written to the database.  A missing
+     * header clears the stored value so a stale validator is never sent.
+     */
+    static private void saveValidators(Context c, String locationSetting,
+                                       String eTag, String lastModified) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        SharedPreferences.Editor spe = sp.edit();
+        String eTagKey = c.getString(R.string.pref_forecast_etag_key) + locationSetting;
+        String lastModifiedKey =
+                c.getString(R.string.pref_forecast_last_modified_key) + locationSetting;
+        if (eTag != null) {
+            spe.putString(eTagKey, eTag);
+        } else {
+            spe.remove(eTagKey);
+        }
+        if (lastModified != null) {
+            spe.putString(lastModifiedKey, lastModified);
+        } else {
+            spe.remove(lastModifiedKey);
+        }
+        spe.commit();
+    }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+    /**
+     * Take a forecast produced by {@link ForecastParser} and write its day rows to the
+     * database, resolving the location first.  Days are upserted, so rows whose forecast
+     * hasn't changed are left alone; the inserted, updated and unchanged counts go to the
+     * sync result's numInserts, numUpdates and numSkippedEntries, and along with the time each
+     * step took, to the sync's metrics.
+     *
+     * @return true if the forecast was accepted and written
+     */
+    private boolean getWeatherDataFromForecast(ForecastParser.Forecast forecast,
+                                            String locationSetting,
+                                            int julianStartDay,
+                                            SyncResult syncResult,
+                                            SyncMetrics metrics) {
+
+        // do we have an error?
+        switch (forecast.messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
+                return false;
+            default:
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                return false;
+        }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+        if (forecast.cityName == null) {
+            Log.e(LOG_TAG, "Forecast response without a city");
+            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            return false;
+        }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+        // The location lookup, weather inserts and pruning of old rows all go to the provider
+        // as one batch: one transaction, and one notification per URI once it has committed.
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        long phase = SyncMetrics.begin();
+        long locationId = getLocationId(locationSetting);
+        metrics.end(SyncMetrics.PHASE_LOCATION, phase);
+        if (locationId == -1) {
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, forecast.cityName);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, forecast.cityLatitude);
+            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, forecast.cityLongitude);
+            operations.add(ContentProviderOperation
+                    .newInsert(withSyncCaller(WeatherContract.LocationEntry.CONTENT_URI))
+                    .withValues(locationValues)
+                    .build());
+        }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+        ArrayList<ContentValues> days = forecast.days;
+        for (ContentValues weatherValues : days) {
+            ContentProviderOperation.Builder insert = ContentProviderOperation
+                    .newInsert(withSyncCaller(WeatherContract.WeatherEntry.buildWeatherUpsertUri()))
+                    .withValues(weatherValues);
+            if (locationId == -1) {
+                // the location row is the first operation of this batch
+                insert.withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, 0);
+            } else {
+                insert.withValue(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            }
+            operations.add(insert.build());
+        }
 
+        if ( days.size() > 0 ) {
+            // delete old data so we don't build up an endless history
             Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+            operations.add(ContentProviderOperation
+                    .newDelete(withSyncCaller(WeatherContract.WeatherEntry.CONTENT_URI))
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                            new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))})
+                    .build());
+        }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-                if (i==0) {
-                    updateWearable(getContext(), weatherValues);
-                }
+        ContentProviderResult[] results = new ContentProviderResult[0];
+        if (!operations.isEmpty()) {
+            phase = SyncMetrics.begin();
+            try {
+                results = getContext().getContentResolver().applyBatch(
+                        WeatherContract.CONTENT_AUTHORITY, operations);
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.e(LOG_TAG, "Error writing forecast", e);
+                return false;
+            } finally {
+                metrics.end(SyncMetrics.PHASE_WRITE, phase);
             }
+            // fold this sync's writes back into the database while the radio wakeup lasts,
+            // rather than at some random later write
+            phase = SyncMetrics.begin();
+            getContext().getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                    WeatherContract.METHOD_CHECKPOINT, null, null);
+            metrics.end(SyncMetrics.PHASE_CHECKPOINT, phase);
+        }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
+        long inserted = 0;
+        long updated = 0;
+        long unchanged = 0;
+        long deleted = 0;
+        for (ContentProviderResult result : results) {
+            if (result.uri == null) {
+                deleted += result.count;
+                continue;
+            }
+            String upsertResult = WeatherContract.WeatherEntry.getUpsertResultFromUri(result.uri);
+            if (WeatherContract.WeatherEntry.UPSERT_INSERTED.equals(upsertResult)) {
+                inserted++;
+            } else if (WeatherContract.WeatherEntry.UPSERT_UPDATED.equals(upsertResult)) {
+                updated++;
+            } else if (WeatherContract.WeatherEntry.UPSERT_UNCHANGED.equals(upsertResult)) {
+                unchanged++;
+            }
+        }
+        syncResult.stats.numInserts += inserted;
+        syncResult.stats.numUpdates += updated;
+        syncResult.stats.numSkippedEntries += unchanged;
+        syncResult.stats.numDeletes += deleted;
+        metrics.setRows(inserted, updated, unchanged, deleted);
+        long syncTime = System.currentTimeMillis();
+        saveSyncTime(getContext(), locationSetting, syncTime);
+
+        if ( days.size() > 0 ) {
+            // Nobody needs to redraw a forecast that is exactly what they already show
+            if (inserted + updated + deleted > 0) {
+                phase = SyncMetrics.begin();
+                updateWearable(getContext(), days, syncTime);
+                metrics.end(SyncMetrics.PHASE_WEARABLE, phase);
+                phase = SyncMetrics.begin();
                 updateWidgets();
+                metrics.end(SyncMetrics.PHASE_WIDGETS, phase);
+                phase = SyncMetrics.begin();
                 updateMuzei();
-                notifyWeather();
+                metrics.end(SyncMetrics.PHASE_MUZEI, phase);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            phase = SyncMetrics.begin();
+            notifyWeather();
+            metrics.end(SyncMetrics.PHASE_NOTIFY, phase);
         }
+        Log.d(LOG_TAG, "Sync Complete. " + inserted + " Inserted, " + updated + " Updated, "
+                + unchanged + " Unchanged, " + deleted + " Deleted");
+        setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        return true;
     }
 
-    private void updateWearable(Context context, ContentValues weatherValues) {
+    /**
+     * Sends every day of the forecast to the watch, as a {@link ForecastPayload} in an Asset.
+     * The watch picks the day to show and formats the temperatures itself.
+     */
+    private void updateWearable(Context context, ArrayList<ContentValues> days, long syncTime) {
         Log.v(LOG_TAG, "updateWearable");
-        int weatherId = weatherValues.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
-
-        double lowTemp = weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
-        double highTemp = weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
-
-        String lowTemperature = Utility.formatTemperature(context, lowTemp);
-        Log.v(LOG_TAG, "lowTemperature = " + lowTemperature);
-        String highTemperature = Utility.formatTemperature(context, highTemp);
-        Log.v(LOG_TAG, "highTemperature = " + highTemperature);
-
-        PutDataMapRequest mRequestMap = PutDataMapRequest.create(WeatherConstants.WEATHER_PARAMS_PATH);
-        mRequestMap.getDataMap().putInt(WeatherConstants.WEATHER_ID, weatherId);
-        mRequestMap.getDataMap().putString( WeatherConstants.HIGH_TEMPERATURE, highTemperature);
-        mRequestMap.getDataMap().putString(WeatherConstants.LOW_TEMPERATURE, lowTemperature);
-
-        PutDataRequest request = mRequestMap.asPutDataRequest();
-        Wearable.DataApi.putDataItem(mGoogleApiClient, request).setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
+        ForecastPayload forecast =
+                WearableForecast.fromDays(days, syncTime, Utility.isMetric(context));
+        WearableForecast.send(mGoogleApiClient, forecast).setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
             @Override
             public void onResult(DataApi.DataItemResult dataItemResult) {
                 if (dataItemResult.getStatus().isSuccess()) {
@@ -460,7 +597,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                 Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
 
                 // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                Cursor cursor = context.getContentResolver().query(
+                        WeatherContract.ProviderStatsEntry.withCaller(weatherUri,
+                                WeatherContract.ProviderStatsEntry.CALLER_NOTIFICATION),
+                        NOTIFY_WEATHER_PROJECTION, null, null, null);
 
                 if (cursor.moveToFirst()) {
                     int weatherId = cursor.getInt(INDEX_WEATHER_ID);
@@ -547,21 +687,24 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         }
     }
 
+    // Tags the sync's own provider calls, so they're told apart in the provider's stats.
+    private static Uri withSyncCaller(Uri uri) {
+        return WeatherContract.ProviderStatsEntry.withCaller(uri,
+                WeatherContract.ProviderStatsEntry.CALLER_SYNC);
+    }
+
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to look up a location in the weather database.
      *
      * @param locationSetting The location string used to request updates from the server.
-     * @param cityName A human-readable city name, e.g "Mountain View"
-     * @param lat the latitude of the city
-     * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @return the row ID of the location, or -1 if it has not been added yet.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
+    long getLocationId(String locationSetting) {
+        long locationId = -1;
 
-        // First, check if the location with this city name exists in the db
+        // Check if the location with this city name exists in the db
         Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
+                withSyncCaller(WeatherContract.LocationEntry.CONTENT_URI),
                 new String[]{WeatherContract.LocationEntry._ID},
                 WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
                 new String[]{locationSetting},
@@ -570,30 +713,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         if (locationCursor.moveToFirst()) {
             int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
             locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
         }
 
         locationCursor.close();
-        // Wait, that worked?  Yes!
         return locationId;
     }
 
@@ -617,10 +739,32 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately, unless {@link SyncRequestGate}
+     * finds that the forecast the sync would download is already on its way or fresh.
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        syncImmediately(context, false);
+    }
+
+    /**
+     * Has the sync adapter sync the location the user has just set.  The sync is only skipped
+     * if one for the same location has just been requested, since the location's status is
+     * only settled by a sync.
+     * @param context The context used to access the account service
+     */
+    public static void syncLocationChange(Context context) {
+        syncImmediately(context, true);
+    }
+
+    private static void syncImmediately(Context context, boolean locationChanged) {
+        String locationSetting = Utility.getPreferredLocation(context);
+        int decision = SyncRequestGate.getInstance().onRequest(locationSetting,
+                System.currentTimeMillis(), getLastSyncTime(context, locationSetting),
+                getLastSyncedLocation(context), locationChanged);
+        if (decision != SyncRequestGate.DECISION_EXECUTE) {
+            return;
+        }
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
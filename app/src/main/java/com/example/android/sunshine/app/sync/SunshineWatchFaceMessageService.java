@@ -2,18 +2,29 @@ package com.example.android.sunshine.app.sync;
 
 import android.util.Log;
 
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshineshared.ForecastPayload;
+import com.example.android.sunshineshared.WeatherConstants;
 import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.WearableListenerService;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by olgakuklina on 2016-08-11.
+ *
+ * Answers the watch face's requests for weather.  A forecast downloaded within the last sync
+ * interval is sent from the database as it is; only an older one costs a network sync, whose
+ * result then reaches the watch the usual way.
  */
 public class SunshineWatchFaceMessageService extends WearableListenerService {
 
 
         public final String LOG_TAG = SunshineWatchFaceMessageService.class.getSimpleName();
 
-        private static final String WEATHER_REQ = "/sunshine/watchface/weatherreq";
+        // a forecast younger than the periodic sync interval is as new as it would be anyway
+        private static final long FRESHNESS_MILLIS =
+                TimeUnit.SECONDS.toMillis(SunshineSyncAdapter.SYNC_INTERVAL);
 
         public SunshineWatchFaceMessageService() {
         }
@@ -25,9 +36,34 @@ public class SunshineWatchFaceMessageService extends WearableListenerService {
 
             Log.d(LOG_TAG, "onMessageReceived" + messageEvent.getPath());
 
-            if ( messageEvent.getPath().equals( WEATHER_REQ ) )
+            if ( messageEvent.getPath().equals( WeatherConstants.WEATHER_REQUEST_PATH ) )
             {
-                SunshineSyncAdapter.syncImmediately(this);
+                if (!sendStoredForecast()) {
+                    SunshineSyncAdapter.syncImmediately(this);
+                }
+            }
+        }
+
+        /**
+         * Sends the stored forecast to the watch if it is fresh enough.  Called on a
+         * background thread.
+         *
+         * @return whether it was sent
+         */
+        private boolean sendStoredForecast() {
+            String locationSetting = Utility.getPreferredLocation(this);
+            long syncTime = SunshineSyncAdapter.getLastSyncTime(this, locationSetting);
+            long age = System.currentTimeMillis() - syncTime;
+            if (age < 0 || age >= FRESHNESS_MILLIS) {
+                Log.d(LOG_TAG, "Stored forecast is stale, syncing");
+                return false;
+            }
+            ForecastPayload forecast = WearableForecast.query(this, locationSetting, syncTime,
+                    Utility.isMetric(this));
+            if (forecast == null) {
+                return false;
             }
+            Log.d(LOG_TAG, "Sending the stored forecast, " + age / 1000 + " s old");
+            return WearableForecast.sendAndWait(this, forecast);
         }
 }
@@ -0,0 +1,144 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.ProviderStatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.SyncMetricsEntry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the phases of one sync and counts what it moved, then writes that as a row of
+ * {@link SyncMetricsEntry}.
+ *
+ * Phases are timed with System.nanoTime, which is monotonic, so a clock change during a sync
+ * doesn't show up as a slow phase.  Nothing here allocates while the sync runs, and a failed
+ * write of the record is only logged: the metrics must never fail a sync.
+ */
+final class SyncMetrics {
+    private static final String LOG_TAG = SyncMetrics.class.getSimpleName();
+
+    static final int PHASE_CONNECT = 0;
+    static final int PHASE_FIRST_BYTE = 1;
+    static final int PHASE_DOWNLOAD = 2;
+    static final int PHASE_DECOMPRESS = 3;
+    static final int PHASE_PARSE = 4;
+    static final int PHASE_LOCATION = 5;
+    static final int PHASE_WRITE = 6;
+    static final int PHASE_CHECKPOINT = 7;
+    static final int PHASE_WEARABLE = 8;
+    static final int PHASE_WIDGETS = 9;
+    static final int PHASE_MUZEI = 10;
+    static final int PHASE_NOTIFY = 11;
+
+    // indexed by phase
+    private static final String[] PHASE_COLUMNS = {
+            SyncMetricsEntry.COLUMN_CONNECT_US,
+            SyncMetricsEntry.COLUMN_FIRST_BYTE_US,
+            SyncMetricsEntry.COLUMN_DOWNLOAD_US,
+            SyncMetricsEntry.COLUMN_DECOMPRESS_US,
+            SyncMetricsEntry.COLUMN_PARSE_US,
+            SyncMetricsEntry.COLUMN_LOCATION_US,
+            SyncMetricsEntry.COLUMN_WRITE_US,
+            SyncMetricsEntry.COLUMN_CHECKPOINT_US,
+            SyncMetricsEntry.COLUMN_WEARABLE_US,
+            SyncMetricsEntry.COLUMN_WIDGETS_US,
+            SyncMetricsEntry.COLUMN_MUZEI_US,
+            SyncMetricsEntry.COLUMN_NOTIFY_US
+    };
+
+    private final long mStartTime;
+    private final long mStartNanos;
+    private final String mLocationSetting;
+    private final long[] mPhaseNanos = new long[PHASE_COLUMNS.length];
+    private String mOutcome = SyncMetricsEntry.OUTCOME_FAILED;
+
+    private long mWireBytes;
+    private long mDecodedBytes;
+    private long mRowsInserted;
+    private long mRowsUpdated;
+    private long mRowsUnchanged;
+    private long mRowsDeleted;
+
+    SyncMetrics(String locationSetting) {
+        mStartTime = System.currentTimeMillis();
+        mStartNanos = System.nanoTime();
+        mLocationSetting = locationSetting;
+    }
+
+    /**
+     * @return the start of a phase, to hand to {@link #end}
+     */
+    static long begin() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time since begin to a phase.
+     */
+    void end(int phase, long begin) {
+        mPhaseNanos[phase] += System.nanoTime() - begin;
+    }
+
+    /**
+     * Adds time measured elsewhere to a phase.
+     */
+    void add(int phase, long nanos) {
+        mPhaseNanos[phase] += nanos;
+    }
+
+    /**
+     * @param outcome one of the SyncMetricsEntry.OUTCOME_ values; a sync that never sets one
+     *                failed
+     */
+    void setOutcome(String outcome) {
+        mOutcome = outcome;
+    }
+
+    void setBytes(long wireBytes, long decodedBytes) {
+        mWireBytes = wireBytes;
+        mDecodedBytes = decodedBytes;
+    }
+
+    void setRows(long inserted, long updated, long unchanged, long deleted) {
+        mRowsInserted = inserted;
+        mRowsUpdated = updated;
+        mRowsUnchanged = unchanged;
+        mRowsDeleted = deleted;
+    }
+
+    ContentValues toContentValues() {
+        ContentValues values = new ContentValues();
+        values.put(SyncMetricsEntry.COLUMN_START_TIME, mStartTime);
+        values.put(SyncMetricsEntry.COLUMN_LOCATION_SETTING, mLocationSetting);
+        values.put(SyncMetricsEntry.COLUMN_OUTCOME, mOutcome);
+        for (int phase = 0; phase < PHASE_COLUMNS.length; phase++) {
+            values.put(PHASE_COLUMNS[phase], TimeUnit.NANOSECONDS.toMicros(mPhaseNanos[phase]));
+        }
+        values.put(SyncMetricsEntry.COLUMN_TOTAL_US,
+                TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - mStartNanos));
+        values.put(SyncMetricsEntry.COLUMN_WIRE_BYTES, mWireBytes);
+        values.put(SyncMetricsEntry.COLUMN_DECODED_BYTES, mDecodedBytes);
+        values.put(SyncMetricsEntry.COLUMN_ROWS_INSERTED, mRowsInserted);
+        values.put(SyncMetricsEntry.COLUMN_ROWS_UPDATED, mRowsUpdated);
+        values.put(SyncMetricsEntry.COLUMN_ROWS_UNCHANGED, mRowsUnchanged);
+        values.put(SyncMetricsEntry.COLUMN_ROWS_DELETED, mRowsDeleted);
+        return values;
+    }
+
+    /**
+     * Ends the sync's record and stores it.
+     */
+    void write(Context context) {
+        ContentValues values = toContentValues();
+        Log.d(LOG_TAG, values.toString());
+        try {
+            context.getContentResolver().insert(ProviderStatsEntry.withCaller(
+                    SyncMetricsEntry.CONTENT_URI, ProviderStatsEntry.CALLER_SYNC), values);
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Couldn't store the sync metrics", e);
+        }
+    }
+}
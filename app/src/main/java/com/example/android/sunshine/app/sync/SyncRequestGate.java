@@ -0,0 +1,118 @@
+package com.example.android.sunshine.app.sync;
+
+import android.support.annotation.IntDef;
+import android.util.Log;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides which requests for an immediate sync are worth a download.
+ *
+ * The settings, account creation and the watch face all ask for syncs, each of which used to
+ * be an expedited download.  A request is now dropped if one for the same location went out
+ * within {@link #COALESCE_WINDOW_MILLIS}, since that sync will bring the same forecast, or if
+ * the forecast for the location was downloaded within {@link #FRESHNESS_MILLIS}.  A request for
+ * a location other than the one last synced, or one made because the user just picked the
+ * location, is never dropped as fresh: the settings screen waits on that sync to tell whether
+ * the location is valid.
+ *
+ * Counts of the requests and of what became of them are kept for the life of the process.
+ */
+public final class SyncRequestGate {
+    private static final String LOG_TAG = SyncRequestGate.class.getSimpleName();
+
+    static final long COALESCE_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    // the forecast doesn't change much within the periodic sync's flex time
+    static final long FRESHNESS_MILLIS =
+            TimeUnit.SECONDS.toMillis(SunshineSyncAdapter.SYNC_FLEXTIME);
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({DECISION_EXECUTE, DECISION_COALESCED, DECISION_FRESH})
+    @interface Decision {}
+
+    static final int DECISION_EXECUTE = 0;
+    static final int DECISION_COALESCED = 1;
+    static final int DECISION_FRESH = 2;
+
+    private static final SyncRequestGate sInstance = new SyncRequestGate();
+
+    private String mLastRequestLocation;
+    private long mLastRequestTime;
+
+    private long mRequested;
+    private long mExecuted;
+    private long mCoalesced;
+    private long mDroppedFresh;
+
+    SyncRequestGate() {
+    }
+
+    public static SyncRequestGate getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @param locationSetting    the location the sync would download
+     * @param lastSyncTime       when the forecast for it was last downloaded, or 0
+     * @param lastSyncedLocation the location of the last successful sync, or null
+     * @param locationChanged    whether the user has just set the location
+     */
+    @Decision
+    synchronized int onRequest(String locationSetting, long now, long lastSyncTime,
+                               String lastSyncedLocation, boolean locationChanged) {
+        mRequested++;
+        int decision;
+        if (locationSetting.equals(mLastRequestLocation)
+                && now >= mLastRequestTime && now - mLastRequestTime < COALESCE_WINDOW_MILLIS) {
+            mCoalesced++;
+            decision = DECISION_COALESCED;
+        } else if (!locationChanged && locationSetting.equals(lastSyncedLocation)
+                && now >= lastSyncTime && now - lastSyncTime < FRESHNESS_MILLIS) {
+            mDroppedFresh++;
+            decision = DECISION_FRESH;
+        } else {
+            mExecuted++;
+            mLastRequestLocation = locationSetting;
+            mLastRequestTime = now;
+            decision = DECISION_EXECUTE;
+        }
+        Log.d(LOG_TAG, "Sync request for " + locationSetting + ": " + decision + ", " + this);
+        return decision;
+    }
+
+    /**
+     * @return the number of immediate syncs asked for
+     */
+    public synchronized long getRequestedCount() {
+        return mRequested;
+    }
+
+    /**
+     * @return the number of immediate syncs actually requested from the sync manager
+     */
+    public synchronized long getExecutedCount() {
+        return mExecuted;
+    }
+
+    /**
+     * @return the number of requests dropped because an equal one had just gone out
+     */
+    public synchronized long getCoalescedCount() {
+        return mCoalesced;
+    }
+
+    /**
+     * @return the number of requests dropped because the forecast was fresh
+     */
+    public synchronized long getDroppedFreshCount() {
+        return mDroppedFresh;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "requested=" + mRequested + " executed=" + mExecuted + " coalesced=" + mCoalesced
+                + " fresh=" + mDroppedFresh;
+    }
+}
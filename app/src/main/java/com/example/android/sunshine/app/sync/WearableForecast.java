@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshineshared.ForecastPayload;
+import com.example.android.sunshineshared.WeatherConstants;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the {@link ForecastPayload} the watch shows, either from a sync's day rows or from the
+ * forecast already in the database, and puts it in the weather DataItem.
+ */
+final class WearableForecast {
+    private static final String LOG_TAG = WearableForecast.class.getSimpleName();
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    private static final int COL_DATE = 0;
+    private static final int COL_WEATHER_ID = 1;
+    private static final int COL_MAX_TEMP = 2;
+    private static final int COL_MIN_TEMP = 3;
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+
+    private WearableForecast() {
+    }
+
+    /**
+     * @param days     the day rows of a sync, in date order
+     * @param syncTime when they were downloaded
+     */
+    static ForecastPayload fromDays(List<ContentValues> days, long syncTime, boolean metric) {
+        TimeZone timeZone = TimeZone.getDefault();
+        ForecastPayload.Builder payload = new ForecastPayload.Builder(syncTime, metric);
+        for (ContentValues weatherValues : days) {
+            payload.addDay(
+                    ForecastPayload.toEpochDay(weatherValues.getAsLong(
+                            WeatherContract.WeatherEntry.COLUMN_DATE), timeZone),
+                    weatherValues.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                    weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                    weatherValues.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+        }
+        return payload.build();
+    }
+
+    /**
+     * Reads the stored forecast for a location, from today on.
+     *
+     * @param syncTime when the stored forecast was downloaded
+     * @return the forecast, or null if there is none from today on
+     */
+    static ForecastPayload query(Context context, String locationSetting, long syncTime,
+                                 boolean metric) {
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.ProviderStatsEntry.withCaller(
+                        WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                                locationSetting, System.currentTimeMillis()),
+                        WeatherContract.ProviderStatsEntry.CALLER_WEARABLE),
+                FORECAST_COLUMNS, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            TimeZone timeZone = TimeZone.getDefault();
+            ForecastPayload.Builder payload = new ForecastPayload.Builder(syncTime, metric);
+            do {
+                payload.addDay(
+                        ForecastPayload.toEpochDay(cursor.getLong(COL_DATE), timeZone),
+                        cursor.getInt(COL_WEATHER_ID),
+                        cursor.getDouble(COL_MAX_TEMP),
+                        cursor.getDouble(COL_MIN_TEMP));
+            } while (cursor.moveToNext());
+            return payload.build();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Puts the forecast in the weather DataItem, from where the data layer takes it to the watch.
+     */
+    static PendingResult<DataApi.DataItemResult> send(GoogleApiClient client,
+                                                      ForecastPayload forecast) {
+        byte[] bytes = forecast.encode();
+        Log.v(LOG_TAG, forecast.getDayCount() + " days in " + bytes.length + " bytes");
+
+        PutDataMapRequest requestMap =
+                PutDataMapRequest.create(WeatherConstants.WEATHER_PARAMS_PATH);
+        requestMap.getDataMap().putAsset(WeatherConstants.FORECAST_ASSET,
+                Asset.createFromBytes(bytes));
+        return Wearable.DataApi.putDataItem(client, requestMap.asPutDataRequest());
+    }
+
+    /**
+     * Connects to the data layer, sends the forecast and waits until it has been put.  Must not
+     * be called on the main thread.
+     *
+     * @return whether it was sent
+     */
+    static boolean sendAndWait(Context context, ForecastPayload forecast) {
+        GoogleApiClient client = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        ConnectionResult connectionResult =
+                client.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!connectionResult.isSuccess()) {
+            Log.w(LOG_TAG, "Couldn't connect to send the forecast: "
+                    + connectionResult.getErrorCode());
+            return false;
+        }
+        try {
+            DataApi.DataItemResult result = send(client, forecast).await();
+            Log.d(LOG_TAG, "Sent the forecast: " + result.getStatus());
+            return result.getStatus().isSuccess();
+        } finally {
+            client.disconnect();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.app.IntentService;
+import android.content.Intent;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshineshared.ForecastPayload;
+
+/**
+ * IntentService which sends the stored forecast to the watch again, for when a setting the
+ * watch shows it with, like the units, has changed.  The forecast itself hasn't, so the sync
+ * wouldn't send it.
+ */
+public class WearableForecastService extends IntentService {
+
+    public WearableForecastService() {
+        super("WearableForecastService");
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        String locationSetting = Utility.getPreferredLocation(this);
+        ForecastPayload forecast = WearableForecast.query(this, locationSetting,
+                SunshineSyncAdapter.getLastSyncTime(this, locationSetting),
+                Utility.isMetric(this));
+        if (forecast != null) {
+            WearableForecast.sendAndWait(this, forecast);
+        }
+    }
+}
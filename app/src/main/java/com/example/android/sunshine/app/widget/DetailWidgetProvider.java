@@ -15,6 +15,7 @@ import android.widget.RemoteViews;
 import com.example.android.sunshine.app.DetailActivity;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsActivity;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -57,7 +58,12 @@ public class DetailWidgetProvider extends AppWidgetProvider {
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
-        if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
+        boolean dataUpdated = SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction());
+        if (dataUpdated) {
+            DetailWidgetRemoteViewsService.onDataUpdated();
+        }
+        if (dataUpdated ||
+                SettingsActivity.ACTION_DISPLAY_PREFERENCES_CHANGED.equals(intent.getAction())) {
             AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
             int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
                     new ComponentName(context, getClass()));
@@ -19,6 +19,7 @@ import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * RemoteViewsService controlling the data being shown in the scrollable weather detail widget
@@ -42,10 +43,21 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     static final int INDEX_WEATHER_MAX_TEMP = 4;
     static final int INDEX_WEATHER_MIN_TEMP = 5;
 
+    // Bumped whenever the stored forecast changes.  A list that was loaded under the current
+    // version and for the current location and day is still valid when its views are refreshed,
+    // which is what happens when only the units or the art pack changed.
+    private static final AtomicLong sDataVersion = new AtomicLong();
+
+    static void onDataUpdated() {
+        sDataVersion.incrementAndGet();
+    }
+
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
             private Cursor data = null;
+            private Uri loadedUri = null;
+            private long loadedDataVersion = -1;
 
             @Override
             public void onCreate() {
@@ -54,6 +66,15 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public void onDataSetChanged() {
+                String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
+                Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+                long dataVersion = sDataVersion.get();
+                if (data != null && dataVersion == loadedDataVersion &&
+                        weatherForLocationUri.equals(loadedUri)) {
+                    // Only the presentation changed; getViewAt formats these rows again
+                    return;
+                }
                 if (data != null) {
                     data.close();
                 }
@@ -62,15 +83,16 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                 // data. Therefore we need to clear (and finally restore) the calling identity so
                 // that calls use our process and permission
                 final long identityToken = Binder.clearCallingIdentity();
-                String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
-                data = getContentResolver().query(weatherForLocationUri,
+                data = getContentResolver().query(
+                        WeatherContract.ProviderStatsEntry.withCaller(weatherForLocationUri,
+                                WeatherContract.ProviderStatsEntry.CALLER_DETAIL_WIDGET),
                         FORECAST_COLUMNS,
                         null,
                         null,
                         WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
                 Binder.restoreCallingIdentity(identityToken);
+                loadedUri = weatherForLocationUri;
+                loadedDataVersion = dataVersion;
             }
 
             @Override
@@ -31,6 +31,7 @@ import android.widget.RemoteViews;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsActivity;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 
@@ -50,6 +51,29 @@ public class TodayWidgetIntentService extends IntentService {
     private static final int INDEX_MAX_TEMP = 2;
     private static final int INDEX_MIN_TEMP = 3;
 
+    /**
+     * Today's row as the widgets were last drawn from it.
+     */
+    private static final class TodayForecast {
+        final Uri uri;
+        final int weatherId;
+        final String description;
+        final double maxTemp;
+        final double minTemp;
+
+        TodayForecast(Uri uri, int weatherId, String description, double maxTemp, double minTemp) {
+            this.uri = uri;
+            this.weatherId = weatherId;
+            this.description = description;
+            this.maxTemp = maxTemp;
+            this.minTemp = minTemp;
+        }
+    }
+
+    // Kept so that a change of units redraws the widgets without reading the forecast again.
+    // It goes away with the process, and then the forecast is simply read again.
+    private static volatile TodayForecast sLastForecast;
+
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
     }
@@ -61,29 +85,28 @@ public class TodayWidgetIntentService extends IntentService {
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
 
-        // Get today's data from the ContentProvider
         String location = Utility.getPreferredLocation(this);
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 location, System.currentTimeMillis());
-        Cursor data = getContentResolver().query(weatherForLocationUri, FORECAST_COLUMNS, null,
-                null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-        if (data == null) {
-            return;
-        }
-        if (!data.moveToFirst()) {
-            data.close();
-            return;
+
+        // When only the presentation changed, today's row is the one we drew last time
+        TodayForecast forecast = sLastForecast;
+        if (intent == null
+                || !SettingsActivity.ACTION_DISPLAY_PREFERENCES_CHANGED.equals(intent.getAction())
+                || forecast == null || !forecast.uri.equals(weatherForLocationUri)) {
+            forecast = queryTodayForecast(weatherForLocationUri);
+            if (forecast == null) {
+                return;
+            }
+            sLastForecast = forecast;
         }
 
-        // Extract the weather data from the Cursor
-        int weatherId = data.getInt(INDEX_WEATHER_ID);
+        // Extract the weather data from the forecast
+        int weatherId = forecast.weatherId;
         int weatherArtResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-        String description = data.getString(INDEX_SHORT_DESC);
-        double maxTemp = data.getDouble(INDEX_MAX_TEMP);
-        double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
-        data.close();
+        String description = forecast.description;
+        String formattedMaxTemperature = Utility.formatTemperature(this, forecast.maxTemp);
+        String formattedMinTemperature = Utility.formatTemperature(this, forecast.minTemp);
 
         // Perform this loop procedure for each Today widget
         for (int appWidgetId : appWidgetIds) {
@@ -121,6 +144,29 @@ public class TodayWidgetIntentService extends IntentService {
         }
     }
 
+    // Get today's data from the ContentProvider
+    private TodayForecast queryTodayForecast(Uri weatherForLocationUri) {
+        Cursor data = getContentResolver().query(
+                WeatherContract.ProviderStatsEntry.withCaller(weatherForLocationUri,
+                        WeatherContract.ProviderStatsEntry.CALLER_TODAY_WIDGET),
+                FORECAST_COLUMNS, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (data == null) {
+            return null;
+        }
+        try {
+            if (!data.moveToFirst()) {
+                return null;
+            }
+            return new TodayForecast(weatherForLocationUri,
+                    data.getInt(INDEX_WEATHER_ID),
+                    data.getString(INDEX_SHORT_DESC),
+                    data.getDouble(INDEX_MAX_TEMP),
+                    data.getDouble(INDEX_MIN_TEMP));
+        } finally {
+            data.close();
+        }
+    }
+
     private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
         // Prior to Jelly Bean, widgets were always their default size
         if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
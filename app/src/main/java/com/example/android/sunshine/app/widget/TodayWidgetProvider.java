@@ -22,6 +22,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 
+import com.example.android.sunshine.app.SettingsActivity;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 /**
@@ -48,6 +49,9 @@ public class TodayWidgetProvider extends AppWidgetProvider {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
             context.startService(new Intent(context, TodayWidgetIntentService.class));
+        } else if (SettingsActivity.ACTION_DISPLAY_PREFERENCES_CHANGED.equals(intent.getAction())) {
+            context.startService(new Intent(context, TodayWidgetIntentService.class)
+                    .setAction(SettingsActivity.ACTION_DISPLAY_PREFERENCES_CHANGED));
         }
     }
 }
@@ -0,0 +1,238 @@
+package com.example.android.sunshineshared;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * The days of a forecast as the phone sends them to the watch, in a compact binary form
+ * carried by a DataItem Asset.
+ *
+ * Temperatures are kept in Celsius, to a tenth of a degree, along with the units the phone
+ * shows them in, so the watch formats them itself and can show any day of the forecast without
+ * asking the phone again.  A day is identified by its epoch day: the number of days since
+ * 1970-01-01 in the local time zone.
+ *
+ * The encoding is big-endian:
+ * <pre>
+ *   magic     short   'S' 'W'
+ *   version   byte    {@link #VERSION}
+ *   flags     byte    bit 0: metric
+ *   syncTime  long    when the phone downloaded the forecast, in milliseconds
+ *   firstDay  int     epoch day of the first day
+ *   count     byte    number of days, unsigned
+ *   then for every day:
+ *     offset    byte    days after firstDay, unsigned
+ *     weatherId short   OpenWeatherMap condition code, signed
+ *     high      short   tenths of a degree Celsius
+ *     low       short   tenths of a degree Celsius
+ * </pre>
+ * Two weeks of forecast take 115 bytes.
+ */
+public final class ForecastPayload {
+
+    public static final int VERSION = 1;
+    public static final int MAX_DAYS = 255;
+
+    private static final int MAGIC = ('S' << 8) | 'W';
+    private static final int FLAG_METRIC = 1;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    public final long syncTime;
+    public final boolean metric;
+
+    private final int[] mDays;
+    private final int[] mWeatherIds;
+    // tenths of a degree Celsius
+    private final short[] mHighs;
+    private final short[] mLows;
+
+    private ForecastPayload(long syncTime, boolean metric, int[] days, int[] weatherIds,
+                            short[] highs, short[] lows) {
+        this.syncTime = syncTime;
+        this.metric = metric;
+        mDays = days;
+        mWeatherIds = weatherIds;
+        mHighs = highs;
+        mLows = lows;
+    }
+
+    /**
+     * Collects the days of a forecast, in ascending order.
+     */
+    public static final class Builder {
+        private final long mSyncTime;
+        private final boolean mMetric;
+        private int mCount;
+        private int[] mDays = new int[16];
+        private int[] mWeatherIds = new int[16];
+        private short[] mHighs = new short[16];
+        private short[] mLows = new short[16];
+
+        public Builder(long syncTime, boolean metric) {
+            mSyncTime = syncTime;
+            mMetric = metric;
+        }
+
+        /**
+         * @param epochDay see {@link #toEpochDay}
+         * @param high     in Celsius
+         * @param low      in Celsius
+         * @throws IllegalArgumentException if the day isn't after the last one added, is more
+         *                                  than 255 days after the first, or is one too many,
+         *                                  or if the weather id doesn't fit in a short
+         */
+        public Builder addDay(int epochDay, int weatherId, double high, double low) {
+            if (weatherId < Short.MIN_VALUE || weatherId > Short.MAX_VALUE) {
+                throw new IllegalArgumentException("Weather id " + weatherId + " out of range");
+            }
+            if (mCount == MAX_DAYS) {
+                throw new IllegalArgumentException("More than " + MAX_DAYS + " days");
+            }
+            if (mCount > 0 && (epochDay <= mDays[mCount - 1] || epochDay - mDays[0] > 255)) {
+                throw new IllegalArgumentException("Day " + epochDay + " out of order");
+            }
+            if (mCount == mDays.length) {
+                int capacity = Math.min(mCount * 2, MAX_DAYS);
+                mDays = Arrays.copyOf(mDays, capacity);
+                mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+                mHighs = Arrays.copyOf(mHighs, capacity);
+                mLows = Arrays.copyOf(mLows, capacity);
+            }
+            mDays[mCount] = epochDay;
+            mWeatherIds[mCount] = weatherId;
+            mHighs[mCount] = toTenths(high);
+            mLows[mCount] = toTenths(low);
+            mCount++;
+            return this;
+        }
+
+        public ForecastPayload build() {
+            return new ForecastPayload(mSyncTime, mMetric, Arrays.copyOf(mDays, mCount),
+                    Arrays.copyOf(mWeatherIds, mCount), Arrays.copyOf(mHighs, mCount),
+                    Arrays.copyOf(mLows, mCount));
+        }
+    }
+
+    private static short toTenths(double celsius) {
+        long tenths = Math.round(celsius * 10);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, tenths));
+    }
+
+    /**
+     * @return the epoch day of the given time in the given time zone
+     */
+    public static int toEpochDay(long millis, TimeZone timeZone) {
+        long localMillis = millis + timeZone.getOffset(millis);
+        long day = localMillis / DAY_IN_MILLIS;
+        if (localMillis % DAY_IN_MILLIS < 0) {
+            day--;
+        }
+        return (int) day;
+    }
+
+    /**
+     * @return the temperature in the units the payload is to be shown in
+     */
+    public static double toDisplayTemperature(double celsius, boolean metric) {
+        return metric ? celsius : celsius * 1.8 + 32;
+    }
+
+    public int getDayCount() {
+        return mDays.length;
+    }
+
+    public int getEpochDay(int index) {
+        return mDays[index];
+    }
+
+    public int getWeatherId(int index) {
+        return mWeatherIds[index];
+    }
+
+    /**
+     * @return the high temperature of the day, in Celsius
+     */
+    public double getHigh(int index) {
+        return mHighs[index] / 10.0;
+    }
+
+    /**
+     * @return the low temperature of the day, in Celsius
+     */
+    public double getLow(int index) {
+        return mLows[index] / 10.0;
+    }
+
+    /**
+     * @return the index of the given epoch day, or -1 if the forecast doesn't cover it
+     */
+    public int indexOfDay(int epochDay) {
+        int index = Arrays.binarySearch(mDays, epochDay);
+        return index >= 0 ? index : -1;
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(17 + 7 * mDays.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(metric ? FLAG_METRIC : 0);
+            out.writeLong(syncTime);
+            out.writeInt(mDays.length > 0 ? mDays[0] : 0);
+            out.writeByte(mDays.length);
+            for (int i = 0; i < mDays.length; i++) {
+                out.writeByte(mDays[i] - mDays[0]);
+                out.writeShort(mWeatherIds[i]);
+                out.writeShort(mHighs[i]);
+                out.writeShort(mLows[i]);
+            }
+        } catch (IOException e) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new AssertionError(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @throws IOException if the bytes aren't a payload of this version
+     */
+    public static ForecastPayload decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        try {
+            if (in.readUnsignedShort() != MAGIC) {
+                throw new IOException("Not a forecast payload");
+            }
+            int version = in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unknown forecast payload version " + version);
+            }
+            boolean metric = (in.readUnsignedByte() & FLAG_METRIC) != 0;
+            long syncTime = in.readLong();
+            int firstDay = in.readInt();
+            int count = in.readUnsignedByte();
+            int[] days = new int[count];
+            int[] weatherIds = new int[count];
+            short[] highs = new short[count];
+            short[] lows = new short[count];
+            for (int i = 0; i < count; i++) {
+                days[i] = firstDay + in.readUnsignedByte();
+                if (i > 0 && days[i] <= days[i - 1]) {
+                    throw new IOException("Forecast days out of order");
+                }
+                weatherIds[i] = in.readShort();
+                highs[i] = in.readShort();
+                lows[i] = in.readShort();
+            }
+            return new ForecastPayload(syncTime, metric, days, weatherIds, highs, lows);
+        } catch (EOFException e) {
+            throw new IOException("Truncated forecast payload", e);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.android.sunshineshared;
+
+/**
+ * What the phone and the watch show for an OpenWeatherMap condition code, looked up in tables
+ * built once instead of walking a chain of ranges on every call.
+ *
+ * A code resolves to a {@link Category}, which picks the icon, the art and the art URL, and to
+ * the string resource describing it.  Every described code up to 804 also has a category; the
+ * 9xx codes, which never had art, still have none.  The drawables themselves differ between the
+ * phone and the watch, so each module maps categories to its own.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+
+    public static final int FIRST_CODE = 200;
+    public static final int LAST_CODE = 962;
+
+    /**
+     * The kinds of weather there is art for.
+     */
+    public enum Category {
+        STORM("storm"),
+        LIGHT_RAIN("light_rain"),
+        RAIN("rain"),
+        SNOW("snow"),
+        FOG("fog"),
+        // drawn as a storm, but Muzei has a picture of its own for it
+        TORNADO("storm"),
+        CLEAR("clear"),
+        LIGHT_CLOUDS("light_clouds"),
+        CLOUDS("clouds");
+
+        /**
+         * The name of the art in an art pack, e.g. "light_rain" for art_light_rain.png.
+         */
+        public final String artKey;
+
+        Category(String artKey) {
+            this.artKey = artKey;
+        }
+    }
+
+    // both indexed by code - FIRST_CODE; null and 0 where a code has none
+    private static final Category[] CATEGORIES = new Category[LAST_CODE - FIRST_CODE + 1];
+    private static final int[] DESCRIPTIONS = new int[LAST_CODE - FIRST_CODE + 1];
+
+    static {
+        setCategory(200, 232, Category.STORM);
+        setCategory(300, 321, Category.LIGHT_RAIN);
+        setCategory(500, 504, Category.RAIN);
+        setCategory(511, 511, Category.SNOW);
+        setCategory(520, 531, Category.RAIN);
+        setCategory(600, 622, Category.SNOW);
+        // 761 (dust) is fog: the old chains had a storm branch for it that was never reached
+        setCategory(701, 762, Category.FOG);
+        setCategory(771, 771, Category.STORM);
+        setCategory(781, 781, Category.TORNADO);
+        setCategory(800, 800, Category.CLEAR);
+        setCategory(801, 801, Category.LIGHT_CLOUDS);
+        setCategory(802, 804, Category.CLOUDS);
+        // the extreme and wind conditions (9xx) have a description but no art
+
+        setDescription(200, 232, R.string.condition_2xx);
+        setDescription(300, 321, R.string.condition_3xx);
+        setDescription(500, R.string.condition_500);
+        setDescription(501, R.string.condition_501);
+        setDescription(502, R.string.condition_502);
+        setDescription(503, R.string.condition_503);
+        setDescription(504, R.string.condition_504);
+        setDescription(511, R.string.condition_511);
+        setDescription(520, R.string.condition_520);
+        setDescription(521, R.string.condition_521);
+        setDescription(522, R.string.condition_522);
+        setDescription(531, R.string.condition_531);
+        setDescription(600, R.string.condition_600);
+        setDescription(601, R.string.condition_601);
+        setDescription(602, R.string.condition_602);
+        setDescription(611, R.string.condition_611);
+        setDescription(612, R.string.condition_612);
+        setDescription(615, R.string.condition_615);
+        setDescription(616, R.string.condition_616);
+        setDescription(620, R.string.condition_620);
+        setDescription(621, R.string.condition_621);
+        setDescription(622, R.string.condition_622);
+        setDescription(701, R.string.condition_701);
+        setDescription(711, R.string.condition_711);
+        setDescription(721, R.string.condition_721);
+        setDescription(731, R.string.condition_731);
+        setDescription(741, R.string.condition_741);
+        setDescription(751, R.string.condition_751);
+        setDescription(761, R.string.condition_761);
+        setDescription(762, R.string.condition_762);
+        setDescription(771, R.string.condition_771);
+        setDescription(781, R.string.condition_781);
+        setDescription(800, R.string.condition_800);
+        setDescription(801, R.string.condition_801);
+        setDescription(802, R.string.condition_802);
+        setDescription(803, R.string.condition_803);
+        setDescription(804, R.string.condition_804);
+        setDescription(900, R.string.condition_900);
+        setDescription(901, R.string.condition_901);
+        setDescription(902, R.string.condition_902);
+        setDescription(903, R.string.condition_903);
+        setDescription(904, R.string.condition_904);
+        setDescription(905, R.string.condition_905);
+        setDescription(906, R.string.condition_906);
+        setDescription(951, R.string.condition_951);
+        setDescription(952, R.string.condition_952);
+        setDescription(953, R.string.condition_953);
+        setDescription(954, R.string.condition_954);
+        setDescription(955, R.string.condition_955);
+        setDescription(956, R.string.condition_956);
+        setDescription(957, R.string.condition_957);
+        setDescription(958, R.string.condition_958);
+        setDescription(959, R.string.condition_959);
+        setDescription(960, R.string.condition_960);
+        setDescription(961, R.string.condition_961);
+        setDescription(962, R.string.condition_962);
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void setCategory(int firstCode, int lastCode, Category category) {
+        for (int code = firstCode; code <= lastCode; code++) {
+            CATEGORIES[code - FIRST_CODE] = category;
+        }
+    }
+
+    private static void setDescription(int firstCode, int lastCode, int stringId) {
+        for (int code = firstCode; code <= lastCode; code++) {
+            DESCRIPTIONS[code - FIRST_CODE] = stringId;
+        }
+    }
+
+    private static void setDescription(int code, int stringId) {
+        DESCRIPTIONS[code - FIRST_CODE] = stringId;
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return the category of the condition, or null if there is no art for it
+     */
+    public static Category getCategory(int weatherId) {
+        if (weatherId < FIRST_CODE || weatherId > LAST_CODE) {
+            return null;
+        }
+        return CATEGORIES[weatherId - FIRST_CODE];
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return the string resource describing the condition, or 0 for an unknown condition, which
+     * R.string.condition_unknown describes instead
+     */
+    public static int getDescriptionResource(int weatherId) {
+        if (weatherId < FIRST_CODE || weatherId > LAST_CODE) {
+            return 0;
+        }
+        return DESCRIPTIONS[weatherId - FIRST_CODE];
+    }
+}
@@ -5,9 +5,10 @@ package com.example.android.sunshineshared;
  */
 public class WeatherConstants {
 
-    public static final String HIGH_TEMPERATURE = "highTemperature";
-    public static final String LOW_TEMPERATURE = "lowTemperature";
-    public static final String WEATHER_ID = "weatherId";
+    // the ForecastPayload in the weather DataItem
+    public static final String FORECAST_ASSET = "forecast";
     public static final String WEATHER_PARAMS_PATH = "/weatherParamsPath";
+    // the message the watch face sends the phone when its forecast has gone stale
+    public static final String WEATHER_REQUEST_PATH = "/sunshine/watchface/weatherreq";
 
 }
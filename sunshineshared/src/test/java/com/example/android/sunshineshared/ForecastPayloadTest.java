@@ -0,0 +1,135 @@
+package com.example.android.sunshineshared;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round trips forecasts through the binary encoding.
+ */
+public class ForecastPayloadTest {
+
+    private static final long SYNC_TIME = 1471000000000L;
+    private static final int FIRST_DAY = 17000;
+
+    private static ForecastPayload createTwoWeeks() {
+        ForecastPayload.Builder builder = new ForecastPayload.Builder(SYNC_TIME, false);
+        for (int i = 0; i < 14; i++) {
+            builder.addDay(FIRST_DAY + i, 800 + i % 5, 20.26 + i, -3.74 - i);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void roundTripKeepsEveryDay() throws IOException {
+        byte[] bytes = createTwoWeeks().encode();
+        assertEquals(17 + 7 * 14, bytes.length);
+
+        ForecastPayload payload = ForecastPayload.decode(bytes);
+        assertEquals(SYNC_TIME, payload.syncTime);
+        assertFalse(payload.metric);
+        assertEquals(14, payload.getDayCount());
+        for (int i = 0; i < 14; i++) {
+            assertEquals(FIRST_DAY + i, payload.getEpochDay(i));
+            assertEquals(800 + i % 5, payload.getWeatherId(i));
+            // to the tenth of a degree
+            assertEquals(20.3 + i, payload.getHigh(i), 1e-9);
+            assertEquals(-3.7 - i, payload.getLow(i), 1e-9);
+        }
+    }
+
+    @Test
+    public void emptyForecastRoundTrips() throws IOException {
+        ForecastPayload payload = ForecastPayload.decode(
+                new ForecastPayload.Builder(SYNC_TIME, true).build().encode());
+        assertTrue(payload.metric);
+        assertEquals(0, payload.getDayCount());
+        assertEquals(-1, payload.indexOfDay(FIRST_DAY));
+    }
+
+    @Test
+    public void indexOfDayFindsGaps() throws IOException {
+        ForecastPayload payload = ForecastPayload.decode(new ForecastPayload.Builder(SYNC_TIME, true)
+                .addDay(FIRST_DAY, 800, 1, 0)
+                .addDay(FIRST_DAY + 2, 500, 1, 0)
+                .build().encode());
+        assertEquals(0, payload.indexOfDay(FIRST_DAY));
+        assertEquals(-1, payload.indexOfDay(FIRST_DAY + 1));
+        assertEquals(1, payload.indexOfDay(FIRST_DAY + 2));
+        assertEquals(-1, payload.indexOfDay(FIRST_DAY + 3));
+    }
+
+    @Test
+    public void negativeWeatherIdRoundTrips() throws IOException {
+        ForecastPayload payload = ForecastPayload.decode(new ForecastPayload.Builder(SYNC_TIME, true)
+                .addDay(FIRST_DAY, -1, 1, 0)
+                .build().encode());
+        assertEquals(-1, payload.getWeatherId(0));
+    }
+
+    @Test
+    public void weatherIdOutOfRangeIsRejected() {
+        try {
+            new ForecastPayload.Builder(SYNC_TIME, true).addDay(FIRST_DAY, 40000, 1, 0);
+            fail("Error: a weather id that doesn't fit the encoding was added");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void daysOutOfOrderAreRejected() {
+        ForecastPayload.Builder builder = new ForecastPayload.Builder(SYNC_TIME, true)
+                .addDay(FIRST_DAY, 800, 1, 0);
+        try {
+            builder.addDay(FIRST_DAY, 800, 1, 0);
+            fail("Error: the same day was added twice");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            builder.addDay(FIRST_DAY + 256, 800, 1, 0);
+            fail("Error: a day out of the payload's range was added");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void badPayloadsAreRejected() {
+        byte[] bytes = createTwoWeeks().encode();
+        byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        byte[] newerVersion = bytes.clone();
+        newerVersion[2] = (byte) (ForecastPayload.VERSION + 1);
+        byte[] notAPayload = bytes.clone();
+        notAPayload[0] = 0;
+
+        for (byte[] bad : new byte[][] {truncated, newerVersion, notAPayload, new byte[0]}) {
+            try {
+                ForecastPayload.decode(bad);
+                fail("Error: decoded a bad payload");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void epochDayFollowsTheTimeZone() {
+        long midnightUtc = FIRST_DAY * 24L * 60 * 60 * 1000;
+        assertEquals(FIRST_DAY, ForecastPayload.toEpochDay(midnightUtc,
+                TimeZone.getTimeZone("UTC")));
+        assertEquals(FIRST_DAY - 1, ForecastPayload.toEpochDay(midnightUtc,
+                TimeZone.getTimeZone("America/New_York")));
+        assertEquals(FIRST_DAY, ForecastPayload.toEpochDay(midnightUtc,
+                TimeZone.getTimeZone("Asia/Tokyo")));
+        assertEquals(-1, ForecastPayload.toEpochDay(-1, TimeZone.getTimeZone("UTC")));
+    }
+
+    @Test
+    public void temperaturesConvertToFahrenheit() {
+        assertEquals(32, ForecastPayload.toDisplayTemperature(0, false), 1e-9);
+        assertEquals(212, ForecastPayload.toDisplayTemperature(100, false), 1e-9);
+        assertEquals(21.5, ForecastPayload.toDisplayTemperature(21.5, true), 1e-9);
+    }
+}
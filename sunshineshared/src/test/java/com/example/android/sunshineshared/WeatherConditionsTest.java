@@ -0,0 +1,100 @@
+package com.example.android.sunshineshared;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the condition table against every code from 200 to 962.
+ */
+public class WeatherConditionsTest {
+
+    // The ranges the if/else chains of the phone and the watch used to map, minus their
+    // unreachable branch for 761, which the fog range before it always took.
+    private static WeatherConditions.Category getChainCategory(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return WeatherConditions.Category.STORM;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return WeatherConditions.Category.LIGHT_RAIN;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return WeatherConditions.Category.RAIN;
+        } else if (weatherId == 511) {
+            return WeatherConditions.Category.SNOW;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return WeatherConditions.Category.RAIN;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return WeatherConditions.Category.SNOW;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return WeatherConditions.Category.FOG;
+        } else if (weatherId == 781) {
+            return WeatherConditions.Category.TORNADO;
+        } else if (weatherId == 800) {
+            return WeatherConditions.Category.CLEAR;
+        } else if (weatherId == 801) {
+            return WeatherConditions.Category.LIGHT_CLOUDS;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return WeatherConditions.Category.CLOUDS;
+        }
+        return null;
+    }
+
+    @Test
+    public void everyCodeTheChainsMappedKeepsItsCategory() {
+        for (int code = WeatherConditions.FIRST_CODE; code <= WeatherConditions.LAST_CODE; code++) {
+            WeatherConditions.Category expected = getChainCategory(code);
+            if (expected != null) {
+                assertEquals("Error: code " + code, expected, WeatherConditions.getCategory(code));
+            }
+        }
+        assertEquals(WeatherConditions.Category.FOG, WeatherConditions.getCategory(761));
+    }
+
+    // The codes the chains mapped, plus 762 and 771, which they described but left without art.
+    @Test
+    public void everyDescribedCodeUpTo804HasACategory() {
+        int described = 0;
+        for (int code = WeatherConditions.FIRST_CODE; code <= 804; code++) {
+            if (WeatherConditions.getDescriptionResource(code) != 0) {
+                described++;
+                assertNotNull("Error: code " + code + " has a description but no art",
+                        WeatherConditions.getCategory(code));
+            }
+        }
+        // the 2xx and 3xx ranges, and the codes described one by one
+        assertEquals(33 + 22 + 35, described);
+        assertEquals(WeatherConditions.Category.FOG, WeatherConditions.getCategory(762));
+        assertEquals(WeatherConditions.Category.STORM, WeatherConditions.getCategory(771));
+    }
+
+    @Test
+    public void extremeAndWindCodesAreDescribedWithoutArt() {
+        int described = 0;
+        for (int code = 900; code <= WeatherConditions.LAST_CODE; code++) {
+            if (WeatherConditions.getDescriptionResource(code) != 0) {
+                described++;
+                assertNull("Error: code " + code, WeatherConditions.getCategory(code));
+            }
+        }
+        // 900 to 906 and 951 to 962
+        assertEquals(7 + 12, described);
+    }
+
+    @Test
+    public void codesOutsideTheTableAreUnknown() {
+        int[] codes = {Integer.MIN_VALUE, -1, 0, WeatherConditions.FIRST_CODE - 1,
+                WeatherConditions.LAST_CODE + 1, Integer.MAX_VALUE};
+        for (int code : codes) {
+            assertNull(WeatherConditions.getCategory(code));
+            assertEquals(0, WeatherConditions.getDescriptionResource(code));
+        }
+    }
+
+    @Test
+    public void codesBetweenTheRangesAreUnknown() {
+        int[] codes = {233, 299, 322, 505, 510, 512, 532, 623, 700, 799, 805, 899, 907, 950};
+        for (int code : codes) {
+            assertNull("Error: code " + code, WeatherConditions.getCategory(code));
+            assertEquals("Error: code " + code, 0, WeatherConditions.getDescriptionResource(code));
+        }
+    }
+}
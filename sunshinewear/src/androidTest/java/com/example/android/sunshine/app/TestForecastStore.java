@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshineshared.ForecastPayload;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class TestForecastStore extends AndroidTestCase {
+
+    private static final long TTL_MILLIS = 60 * 60 * 1000;
+    private static final long SYNC_TIME = 1471000000000L;
+
+    private File mFile;
+    private ForecastStore mStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(mContext.getCacheDir(), "test_forecast");
+        mFile.delete();
+        mStore = new ForecastStore(mFile, TTL_MILLIS);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    private static byte[] createPayload(int weatherId) {
+        return new ForecastPayload.Builder(SYNC_TIME, true)
+                .addDay(17000, weatherId, 21, 12)
+                .addDay(17001, 800, 23, 13)
+                .build()
+                .encode();
+    }
+
+    public void testNothingStored() {
+        assertNull("Error: loaded a forecast that was never stored", mStore.load());
+    }
+
+    public void testSavedForecastIsLoaded() {
+        mStore.save(createPayload(500));
+        mStore.save(createPayload(801));
+
+        // as a new face would after a restart
+        ForecastPayload forecast = new ForecastStore(mFile, TTL_MILLIS).load();
+        assertNotNull("Error: the stored forecast wasn't loaded", forecast);
+        assertEquals(SYNC_TIME, forecast.syncTime);
+        assertEquals(2, forecast.getDayCount());
+        assertEquals("Error: the first forecast wasn't replaced", 801, forecast.getWeatherId(0));
+    }
+
+    public void testUnreadableForecastIsDiscarded() throws IOException {
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+
+        assertNull("Error: loaded a corrupt forecast", mStore.load());
+        assertFalse("Error: the corrupt forecast was kept", mFile.exists());
+    }
+
+    public void testFreshness() {
+        ForecastPayload forecast = new ForecastPayload.Builder(SYNC_TIME, true).build();
+        assertFalse(mStore.isFresh(null, SYNC_TIME));
+        assertTrue(mStore.isFresh(forecast, SYNC_TIME));
+        assertTrue(mStore.isFresh(forecast, SYNC_TIME + TTL_MILLIS - 1));
+        assertFalse(mStore.isFresh(forecast, SYNC_TIME + TTL_MILLIS));
+        // the phone's clock a minute ahead of the watch's
+        assertTrue(mStore.isFresh(forecast, SYNC_TIME - 60 * 1000));
+        assertFalse(mStore.isFresh(forecast, SYNC_TIME - TTL_MILLIS));
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshineshared.ForecastPayload;
+
+import java.util.TimeZone;
+
+public class TestWatchFaceRenderer extends AndroidTestCase {
+
+    private static final int FACE_SIZE = 320;
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+    private static final long DAY_IN_MILLIS = 24 * 60 * MINUTE_IN_MILLIS;
+
+    private WatchFaceRenderer mRenderer;
+    private Bitmap mFrame;
+    private Canvas mCanvas;
+    private Rect mBounds;
+    // the start of a minute, so that a frame a second for a minute doesn't change it
+    private long mMinute;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRenderer = new WatchFaceRenderer(mContext.getResources());
+        mRenderer.setTimeZone(TimeZone.getTimeZone("UTC"));
+        mFrame = Bitmap.createBitmap(FACE_SIZE, FACE_SIZE, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mFrame);
+        mBounds = new Rect(0, 0, FACE_SIZE, FACE_SIZE);
+        mMinute = System.currentTimeMillis() / MINUTE_IN_MILLIS * MINUTE_IN_MILLIS;
+        mRenderer.setForecast(createForecast(800, 25, 16));
+    }
+
+    // a week from yesterday on, every day with the same weather
+    private ForecastPayload createForecast(int weatherId, double high, double low) {
+        int today = ForecastPayload.toEpochDay(mMinute, TimeZone.getTimeZone("UTC"));
+        ForecastPayload.Builder builder = new ForecastPayload.Builder(mMinute, true);
+        for (int day = today - 1; day < today + 6; day++) {
+            builder.addDay(day, weatherId, high, low);
+        }
+        return builder.build();
+    }
+
+    /*
+        Counts the objects allocated by this thread while drawing a frame a second for the rest
+        of the minute of a frame that was already drawn, as interactive mode does.
+     */
+    @SuppressWarnings("deprecation")
+    private int countAllocationsDrawingOneMinute() {
+        mRenderer.draw(mCanvas, mBounds, mMinute);
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            for (int second = 1; second < 60; second++) {
+                mRenderer.draw(mCanvas, mBounds, mMinute + second * 1000);
+            }
+            return Debug.getThreadAllocCount();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    public void testInteractiveFramesDoNotAllocate() {
+        mRenderer.setAmbient(false, false);
+        assertEquals("Error: drawing the face allocated objects",
+                0, countAllocationsDrawingOneMinute());
+    }
+
+    public void testAmbientFramesDoNotAllocate() {
+        mRenderer.setAmbient(true, true);
+        assertEquals("Error: drawing the face in ambient mode allocated objects",
+                0, countAllocationsDrawingOneMinute());
+    }
+
+    public void testSwitchingModesDoesNotAllocate() {
+        mRenderer.setAmbient(false, true);
+        mRenderer.draw(mCanvas, mBounds, mMinute);
+        mRenderer.setAmbient(true, true);
+        mRenderer.draw(mCanvas, mBounds, mMinute + 1000);
+        // both layers are drawn now, so going in and out of ambient mode only blits them
+        assertEquals("Error: switching modes allocated objects",
+                0, countAllocationsSwitchingModes());
+    }
+
+    @SuppressWarnings("deprecation")
+    private int countAllocationsSwitchingModes() {
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            for (int second = 2; second < 60; second++) {
+                mRenderer.setAmbient(second % 2 == 0, true);
+                mRenderer.draw(mCanvas, mBounds, mMinute + second * 1000);
+            }
+            return Debug.getThreadAllocCount();
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /*
+        @return a copy of the frame drawn at now, so later frames can be compared with it
+     */
+    private Bitmap drawFrame(long now) {
+        mFrame.eraseColor(0);
+        mRenderer.draw(mCanvas, mBounds, now);
+        return mFrame.copy(Bitmap.Config.ARGB_8888, false);
+    }
+
+    /*
+        Frames are drawn at the same time, so the weather is all that can change between them.
+        A new forecast must reach the cached layer, and going back to the first one must give
+        back the first frame exactly.
+     */
+    public void testWeatherChangeIsDrawn() {
+        Bitmap clear = drawFrame(mMinute);
+        mRenderer.setForecast(createForecast(500, 12, 8));
+        Bitmap rain = drawFrame(mMinute);
+        assertFalse("Error: a new condition and temperatures weren't drawn", rain.sameAs(clear));
+        mRenderer.setForecast(createForecast(-1, 12, 8));
+        Bitmap unknown = drawFrame(mMinute);
+        assertFalse("Error: losing the weather icon wasn't drawn", unknown.sameAs(rain));
+        mRenderer.setForecast(createForecast(800, 25, 16));
+        assertTrue("Error: the first forecast drew a different frame the second time",
+                drawFrame(mMinute).sameAs(clear));
+    }
+
+    /*
+        Past its last day the forecast has no weather to show, so the face must look as it does
+        with a forecast of no days at all, both on the day after it ends and after the midnight
+        that follows.
+     */
+    public void testDaysPastTheForecastAreDrawn() {
+        ForecastPayload forecast = createForecast(800, 25, 16);
+        ForecastPayload noDays = new ForecastPayload.Builder(mMinute, true).build();
+        for (int day = 6; day <= 7; day++) {
+            long now = mMinute + day * DAY_IN_MILLIS;
+            mRenderer.setForecast(forecast);
+            Bitmap pastTheForecast = drawFrame(now);
+            mRenderer.setForecast(noDays);
+            assertTrue("Error: weather was drawn " + day + " days on, past the forecast",
+                    drawFrame(now).sameAs(pastTheForecast));
+        }
+    }
+
+    public void testReleasedLayersAreDrawnAgain() {
+        Bitmap before = drawFrame(mMinute);
+        mRenderer.release();
+        assertTrue("Error: the face was drawn differently after its layers were released",
+                drawFrame(mMinute).sameAs(before));
+    }
+
+    /*
+        A low-bit ambient screen can only show the colors it is given, so the frame must have no
+        blended pixels: only the black background and the text colors, the icon drawn in white.
+     */
+    public void testLowBitAmbientFrameHasNoShades() {
+        mRenderer.setAmbient(true, true);
+        drawFrame(mMinute);
+        int white = mContext.getResources().getColor(R.color.digital_text);
+        int minText = mContext.getResources().getColor(R.color.digital_min_text);
+        for (int y = 0; y < FACE_SIZE; y++) {
+            for (int x = 0; x < FACE_SIZE; x++) {
+                int pixel = mFrame.getPixel(x, y);
+                if (pixel != Color.BLACK && pixel != white && pixel != minText) {
+                    fail("Error: pixel " + x + "," + y + " is shaded: "
+                            + Integer.toHexString(pixel));
+                }
+            }
+        }
+    }
+}
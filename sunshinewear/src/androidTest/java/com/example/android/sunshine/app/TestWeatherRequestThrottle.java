@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+public class TestWeatherRequestThrottle extends AndroidTestCase {
+
+    private static final long INTERVAL_MILLIS = 30 * 60 * 1000;
+    private static final long NOW = 1471000000000L;
+
+    private SharedPreferences mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences("test_weather_requests", Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testRequestsAreSpacedOut() {
+        WeatherRequestThrottle throttle = new WeatherRequestThrottle(mPrefs, INTERVAL_MILLIS);
+        assertTrue("Error: the first request was held off", throttle.tryAcquire(NOW));
+        assertFalse(throttle.tryAcquire(NOW + 1));
+        assertFalse(throttle.tryAcquire(NOW + INTERVAL_MILLIS - 1));
+        assertTrue(throttle.tryAcquire(NOW + INTERVAL_MILLIS));
+    }
+
+    public void testLastRequestOutlivesTheFace() {
+        assertTrue(new WeatherRequestThrottle(mPrefs, INTERVAL_MILLIS).tryAcquire(NOW));
+        // as a restarted face would
+        assertFalse("Error: a restarted face asked again at once",
+                new WeatherRequestThrottle(mPrefs, INTERVAL_MILLIS).tryAcquire(NOW + 1000));
+    }
+
+    public void testClockSetBack() {
+        WeatherRequestThrottle throttle = new WeatherRequestThrottle(mPrefs, INTERVAL_MILLIS);
+        assertTrue(throttle.tryAcquire(NOW));
+        assertTrue("Error: a clock set back held requests off",
+                throttle.tryAcquire(NOW - 24 * 60 * 60 * 1000));
+    }
+}
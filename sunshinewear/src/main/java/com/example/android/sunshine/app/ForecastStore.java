@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.sunshineshared.ForecastPayload;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps the last forecast the phone sent, so the watch face shows it on its first frame after a
+ * restart instead of waiting for the phone to sync again.
+ *
+ * The payload is stored as the phone encoded it; it is small enough to be read on the main
+ * thread when the face is created.
+ */
+class ForecastStore {
+    private static final String LOG_TAG = ForecastStore.class.getSimpleName();
+    private static final String FILE_NAME = "forecast";
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+
+    private final AtomicFile mFile;
+    private final long mTtlMillis;
+
+    ForecastStore(Context context) {
+        this(new File(context.getFilesDir(), FILE_NAME),
+                context.getResources().getInteger(R.integer.forecast_ttl_minutes)
+                        * MINUTE_IN_MILLIS);
+    }
+
+    ForecastStore(File file, long ttlMillis) {
+        mFile = new AtomicFile(file);
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * @return the stored forecast, or null if there is none or it can't be read
+     */
+    ForecastPayload load() {
+        try {
+            return ForecastPayload.decode(mFile.readFully());
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Discarding the stored forecast", e);
+            mFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the stored forecast with an encoded {@link ForecastPayload}.
+     */
+    void save(byte[] payload) {
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            out.write(payload);
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Couldn't store the forecast", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    /**
+     * @return whether the forecast was downloaded recently enough that there's no need to ask
+     * the phone for a newer one
+     */
+    boolean isFresh(ForecastPayload forecast, long now) {
+        if (forecast == null) {
+            return false;
+        }
+        // the phone's clock may be a little ahead of the watch's, but a forecast from well into
+        // the future means one of them was set wrong, and can't be trusted either
+        return Math.abs(now - forecast.syncTime) < mTtlMillis;
+    }
+}
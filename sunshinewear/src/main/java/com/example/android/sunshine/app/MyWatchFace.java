@@ -21,13 +21,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
-import android.graphics.Paint;
 import android.graphics.Rect;
-import android.graphics.Typeface;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -39,26 +36,32 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshineshared.ForecastPayload;
+import com.example.android.sunshineshared.WeatherConditions;
 import com.example.android.sunshineshared.WeatherConstants;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
-import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.ref.WeakReference;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.Iterator;
-import java.util.Locale;
+import java.util.List;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
 
@@ -67,9 +70,6 @@ import java.util.concurrent.TimeUnit;
  * low-bit ambient mode, the text is drawn without anti-aliasing in ambient mode.
  */
 public class MyWatchFace extends CanvasWatchFaceService implements GoogleApiClient.ConnectionCallbacks, DataApi.DataListener, GoogleApiClient.OnConnectionFailedListener {
-    private static final Typeface NORMAL_TYPEFACE =
-            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
-
     private static final String LOG_TAG = MyWatchFace.class.getSimpleName();
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
@@ -82,13 +82,13 @@ public class MyWatchFace extends CanvasWatchFaceService implements GoogleApiClie
      */
     private static final int MSG_UPDATE_TIME = 0;
 
-    // Weather icons
-    private Bitmap mWFWeatherIcon;
-    private int mWFWeatherId = 800;
-
-    String highTemperature = "loading";
-    String lowTemperature = "...";
+    // the forecast the phone last sent, or null until it arrives
+    private ForecastPayload mForecast;
+    private ForecastStore mForecastStore;
+    private WeatherRequestThrottle mRequestThrottle;
     GoogleApiClient mGoogleApiClient;
+    // the engine showing the weather, told when it changes
+    private Engine mEngine;
 
     @Override
     public Engine onCreateEngine() {
@@ -99,13 +99,107 @@ public class MyWatchFace extends CanvasWatchFaceService implements GoogleApiClie
                 .addApi(Wearable.API)
                 .build();
         mGoogleApiClient.connect();
-        return new Engine();
+        // show the last forecast on the first frame; a new one replaces it when it arrives
+        mForecastStore = new ForecastStore(this);
+        mForecast = mForecastStore.load();
+        mRequestThrottle = new WeatherRequestThrottle(this);
+        mEngine = new Engine();
+        return mEngine;
     }
 
     @Override
     public void onConnected(@Nullable Bundle bundle) {
         Log.v(LOG_TAG, "MyWatchface is here!!");
         Wearable.DataApi.addListener(mGoogleApiClient, this);
+        loadCurrentForecast();
+    }
+
+    /**
+     * Reads the weather DataItem as it is now.  onDataChanged only reports changes, and a phone
+     * that puts the same forecast again doesn't change the item, so a watch that has lost its
+     * stored forecast would never hear of it otherwise.  The phone is asked only if what is
+     * there is stale too.
+     */
+    private void loadCurrentForecast() {
+        Uri uri = new Uri.Builder()
+                .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                .path(WeatherConstants.WEATHER_PARAMS_PATH)
+                .build();
+        Wearable.DataApi.getDataItems(mGoogleApiClient, uri)
+                .setResultCallback(new ResultCallback<DataItemBuffer>() {
+                    @Override
+                    public void onResult(DataItemBuffer dataItems) {
+                        Asset asset = null;
+                        try {
+                            if (dataItems.getStatus().isSuccess() && dataItems.getCount() > 0) {
+                                asset = getForecastAsset(dataItems.get(0));
+                            }
+                        } finally {
+                            dataItems.release();
+                        }
+                        if (asset != null) {
+                            // asks the phone afterwards if the forecast is still stale
+                            new LoadForecastTask().execute(asset);
+                        } else {
+                            requestWeatherUpdateIfStale();
+                        }
+                    }
+                });
+    }
+
+    private static Asset getForecastAsset(DataItem dataItem) {
+        return DataMapItem.fromDataItem(dataItem).getDataMap()
+                .getAsset(WeatherConstants.FORECAST_ASSET);
+    }
+
+    /**
+     * Asks the phone for a newer forecast if the one shown is too old, unless a request went out
+     * recently.
+     */
+    void requestWeatherUpdateIfStale() {
+        if (!mGoogleApiClient.isConnected()) {
+            // asked again once connected
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (mForecastStore.isFresh(mForecast, now) || !mRequestThrottle.tryAcquire(now)) {
+            return;
+        }
+        Log.v(LOG_TAG, "requestWeatherUpdate");
+        Wearable.NodeApi.getConnectedNodes(mGoogleApiClient)
+                .setResultCallback(new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+                    @Override
+                    public void onResult(NodeApi.GetConnectedNodesResult result) {
+                        sendWeatherRequest(result.getNodes());
+                    }
+                });
+    }
+
+    /**
+     * Sends the request to the phone: the nearby nodes, or every connected node if none is
+     * nearby, as when the phone is only reachable through the cloud.
+     */
+    private void sendWeatherRequest(List<Node> nodes) {
+        boolean anyNearby = false;
+        for (Node node : nodes) {
+            anyNearby |= node.isNearby();
+        }
+        for (Node node : nodes) {
+            if (anyNearby && !node.isNearby()) {
+                continue;
+            }
+            Wearable.MessageApi.sendMessage(mGoogleApiClient, node.getId(),
+                    WeatherConstants.WEATHER_REQUEST_PATH, null)
+                    .setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
+                        @Override
+                        public void onResult(MessageApi.SendMessageResult sendMessageResult) {
+                            Log.v(LOG_TAG, "SendMessageResult status " + sendMessageResult.getStatus());
+                        }
+                    });
+        }
+        if (nodes.isEmpty()) {
+            Log.v(LOG_TAG, "No phone connected to ask for the weather");
+        }
     }
 
     @Override
@@ -127,18 +221,63 @@ public class MyWatchFace extends CanvasWatchFaceService implements GoogleApiClie
             if (event.getType() == DataEvent.TYPE_CHANGED) {
                 DataItem dataItem = event.getDataItem();
                 if (dataItem.getUri().getPath().equals(WeatherConstants.WEATHER_PARAMS_PATH)) {
-                    DataMap dataMap = DataMapItem.fromDataItem(dataItem).getDataMap();
-                    mWFWeatherId = dataMap.getInt(WeatherConstants.WEATHER_ID);
-                    mWFWeatherIcon = BitmapFactory.decodeResource(
-                            getResources(),
-                            getIconResourceForWeatherCondition(mWFWeatherId));
-                    highTemperature = dataMap.getString(WeatherConstants.HIGH_TEMPERATURE);
-                    lowTemperature = dataMap.getString(WeatherConstants.LOW_TEMPERATURE);
+                    Asset asset = getForecastAsset(dataItem);
+                    if (asset != null) {
+                        new LoadForecastTask().execute(asset);
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Reads a {@link ForecastPayload} from its Asset, which has to be fetched off the main
+     * thread, stores it and shows it.
+     */
+    private class LoadForecastTask extends AsyncTask<Asset, Void, ForecastPayload> {
+        @Override
+        protected ForecastPayload doInBackground(Asset... assets) {
+            DataApi.GetFdForAssetResult result =
+                    Wearable.DataApi.getFdForAsset(mGoogleApiClient, assets[0]).await();
+            try {
+                if (!result.getStatus().isSuccess()) {
+                    Log.w(LOG_TAG, "Couldn't fetch the forecast: " + result.getStatus());
+                    return null;
+                }
+                byte[] payload = readFully(result.getInputStream());
+                ForecastPayload forecast = ForecastPayload.decode(payload);
+                mForecastStore.save(payload);
+                return forecast;
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Couldn't read the forecast", e);
+                return null;
+            } finally {
+                result.release();
+            }
+        }
+
+        @Override
+        protected void onPostExecute(ForecastPayload forecast) {
+            if (forecast != null) {
+                mForecast = forecast;
+                if (mEngine != null) {
+                    mEngine.onWeatherChanged();
+                }
+            }
+            requestWeatherUpdateIfStale();
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[512];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+
     private static class EngineHandler extends Handler {
         private final WeakReference<MyWatchFace.Engine> mWeakReference;
 
@@ -160,51 +299,27 @@ public class MyWatchFace extends CanvasWatchFaceService implements GoogleApiClie
     }
 
     private class Engine extends CanvasWatchFaceService.Engine {
-        private static final String DATE_FORMAT = "EEE, MMM d yyyy";
-        private static final String TIME_FORMAT_AMBIENT = "%02d:%02d";
-        private static final String TIME_FORMAT = "%02d:%02d:%02d";
-
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         boolean mRegisteredTimeZoneReceiver = false;
-        Paint mBackgroundPaint;
-        Paint mTextPaint;
-        Paint mTimePaint;
-        Paint mDatePaint;
-
-        Paint mHighDegreesPaint;
-        Paint mLowDegreesPaint;
 
         boolean mAmbient;
 
-
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                String timeZoneId = intent.getStringExtra("time-zone");
-                mCalendar.setTimeZone(TimeZone.getTimeZone(timeZoneId));
+                mRenderer.setTimeZone(TimeZone.getTimeZone(timeZoneId));
             }
         };
         int mTapCount;
 
-        float mYTimeOffset;
-        float mYDateOffset;
-        float mYLineOffset;
-        float mYIconOffset;
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
          */
         boolean mLowBitAmbient;
 
-        //Time and date format
-        private Calendar mCalendar;
-        private DateFormat mDateFormat;
-
-
-
-
-
-
+        WatchFaceRenderer mRenderer;
 
         @Override
         public void onCreate(SurfaceHolder holder) {
@@ -216,48 +331,21 @@ public class MyWatchFace extends CanvasWatchFaceService implements GoogleApiClie
                     .setShowSystemUiTime(false)
                     .setAcceptsTapEvents(true)
                     .build());
-            Resources resources = MyWatchFace.this.getResources();
-            mYTimeOffset = resources.getDimension(R.dimen.digital_y_offset);
-            mYDateOffset = resources.getDimension(R.dimen.digital_y_date_offset);
-            mYLineOffset = resources.getDimension(R.dimen.digital_y_line_offset);
-            mYIconOffset = resources.getDimension(R.dimen.digital_y_icon_offset);
-            mBackgroundPaint = new Paint();
-            mBackgroundPaint.setColor(resources.getColor(R.color.background));
-
-            mTextPaint = new Paint();
-            mTextPaint = createTextPaint(resources.getColor(R.color.digital_text));
-            mTimePaint = createTextPaint(resources.getColor(R.color.digital_text));
-            mDatePaint = createTextPaint(resources.getColor(R.color.digital_min_text));
-            mHighDegreesPaint = createTextPaint(resources.getColor(R.color.digital_text));
-            mLowDegreesPaint = createTextPaint(resources.getColor(R.color.digital_min_text));
-            mCalendar = Calendar.getInstance();
-            mDateFormat = new SimpleDateFormat(DATE_FORMAT, Locale.getDefault());
-            requestWeatherUpdate();
-        }
-
-        private void requestWeatherUpdate() {
-            Log.v(LOG_TAG, "requestWeatherUpdate");
-            Wearable.MessageApi.sendMessage(mGoogleApiClient, "", "/sunshine/watchface/weatherreq", null)
-                    .setResultCallback(new ResultCallback<MessageApi.SendMessageResult>() {
-                        @Override
-                        public void onResult(MessageApi.SendMessageResult sendMessageResult) {
-                            Log.v(LOG_TAG, "SendMessageResult status " + sendMessageResult.getStatus());
-                        }
-                    });
+            mRenderer = new WatchFaceRenderer(MyWatchFace.this.getResources());
+            onWeatherChanged();
+            requestWeatherUpdateIfStale();
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            mRenderer.release();
             super.onDestroy();
         }
 
-        private Paint createTextPaint(int textColor) {
-            Paint paint = new Paint();
-            paint.setColor(textColor);
-            paint.setTypeface(NORMAL_TYPEFACE);
-            paint.setAntiAlias(true);
-            return paint;
+        void onWeatherChanged() {
+            mRenderer.setForecast(mForecast);
+            invalidate();
         }
 
         @Override
@@ -268,7 +356,9 @@ public class MyWatchFace extends CanvasWatchFaceService implements GoogleApiClie
                 registerReceiver();
 
                 // Update time zone in case it changed while we weren't visible.
-                mCalendar.setTimeZone(TimeZone.getDefault());
+                mRenderer.setTimeZone(TimeZone.getDefault());
+                // a face left running for hours lets its forecast go stale
+                requestWeatherUpdateIfStale();
             } else {
                 unregisterReceiver();
             }
@@ -300,19 +390,7 @@ public class MyWatchFace extends CanvasWatchFaceService implements GoogleApiClie
             super.onApplyWindowInsets(insets);
 
             // Load resources that have alternate values for round watches.
-            Resources resources = MyWatchFace.this.getResources();
-            boolean isRound = insets.isRound();
-            float timeTextSize = resources.getDimension(isRound
-                    ? R.dimen.digital_time_text_size_round : R.dimen.digital_time_text_size);
-            float dateTextSize = resources.getDimension(isRound
-                    ? R.dimen.digital_date_text_size_round : R.dimen.digital_date_text_size);
-            float degreesTextSize = resources.getDimension(isRound
-                    ? R.dimen.digital_degrees_text_size_round : R.dimen.digital_degrees_text_size);
-
-            mTextPaint.setTextSize(timeTextSize);
-            mDatePaint.setTextSize(dateTextSize);
-            mHighDegreesPaint.setTextSize(degreesTextSize);
-            mLowDegreesPaint.setTextSize(degreesTextSize);
+            mRenderer.setTextSizes(insets.isRound());
         }
 
         @Override
@@ -332,9 +410,7 @@ public class MyWatchFace extends CanvasWatchFaceService implements GoogleApiClie
             super.onAmbientModeChanged(inAmbientMode);
             if (mAmbient != inAmbientMode) {
                 mAmbient = inAmbientMode;
-                if (mLowBitAmbient) {
-                    mTextPaint.setAntiAlias(!inAmbientMode);
-                }
+                mRenderer.setAmbient(inAmbientMode, mLowBitAmbient);
                 invalidate();
             }
 
@@ -360,7 +436,7 @@ public class MyWatchFace extends CanvasWatchFaceService implements GoogleApiClie
                 case TAP_TYPE_TAP:
                     // The user has completed the tap gesture.
                     mTapCount++;
-                    mBackgroundPaint.setColor(resources.getColor(mTapCount % 2 == 0 ?
+                    mRenderer.setBackgroundColor(resources.getColor(mTapCount % 2 == 0 ?
                             R.color.background : R.color.background2));
                     break;
             }
@@ -369,59 +445,8 @@ public class MyWatchFace extends CanvasWatchFaceService implements GoogleApiClie
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
-            }
-
-            mCalendar.setTimeInMillis(System.currentTimeMillis());
-
-            // Time formatting
-            // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
-            String text;
-            int hours =  mCalendar.get(Calendar.HOUR) == 0 ? 12 : mCalendar.get(Calendar.HOUR_OF_DAY);
-            int minutes =  mCalendar.get(Calendar.MINUTE);
-            if (!mAmbient) {
-                int seconds =  mCalendar.get(Calendar.SECOND);
-                text = String.format(TIME_FORMAT, hours, minutes, seconds);
-            }
-            else {
-                text = String.format(TIME_FORMAT_AMBIENT, hours, minutes);
-            }
-            float textWidth = mTextPaint.measureText(text);
-            int textXOffset = (int)(bounds.width() - textWidth)/2;
-            canvas.drawText(text, textXOffset, mYTimeOffset, mTextPaint);
-
-            String date = mDateFormat.format(mCalendar.getTime()).toUpperCase();
-            float datetWidth = mDatePaint.measureText(date);
-            int xDateOffset = (int)(bounds.width() - datetWidth)/2;
-            canvas.drawText(date, xDateOffset, mYDateOffset, mDatePaint);
-            int xlineOffset = (int)(bounds.width() - bounds.width()/5)/2;
-            canvas.drawLine(xlineOffset, mYLineOffset, (xlineOffset + bounds.width()/5),mYLineOffset, mDatePaint);
-
-
-            mWFWeatherIcon = BitmapFactory.decodeResource(
-                    getResources(),
-                    getIconResourceForWeatherCondition(mWFWeatherId));
-            int xIconOffset = (bounds.width() - mWFWeatherIcon.getWidth())/2 - (mWFWeatherIcon.getWidth()) +10;
-            canvas.drawBitmap(mWFWeatherIcon, xIconOffset, mYIconOffset, new Paint());
-
-            Resources resources = MyWatchFace.this.getResources();
-            float yDegreesOffset = mYIconOffset + resources.getDimension(R.dimen.digital_y_degrees_offset);;
-
-            float xDegreesOffsetHigh = xIconOffset + mWFWeatherIcon.getWidth() + resources.getDimension(R.dimen.digital_x_min_offset);
-            float xDegreesOffsetLow = xDegreesOffsetHigh + resources.getDimension(R.dimen.digital_x_space_offset) + mHighDegreesPaint.measureText(highTemperature);
-
-            Log.v(LOG_TAG, "xh = " + xDegreesOffsetHigh);
-            Log.v(LOG_TAG, "xl = " + xDegreesOffsetLow);
-
-            Log.v(LOG_TAG, "xIconOffset = " + xIconOffset);
-            canvas.drawText(highTemperature, xDegreesOffsetHigh, yDegreesOffset, mHighDegreesPaint);
-            canvas.drawText(lowTemperature, xDegreesOffsetLow, yDegreesOffset, mLowDegreesPaint);
-
-
+            // runs every second in interactive mode; see WatchFaceRenderer
+            mRenderer.draw(canvas, bounds, System.currentTimeMillis());
         }
 
         /**
@@ -463,30 +488,28 @@ public class MyWatchFace extends CanvasWatchFaceService implements GoogleApiClie
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getIconResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_cloudy;
+        WeatherConditions.Category category = WeatherConditions.getCategory(weatherId);
+        if (category == null) {
+            return -1;
+        }
+        switch (category) {
+            case STORM:
+            case TORNADO:
+                return R.drawable.ic_storm;
+            case LIGHT_RAIN:
+                return R.drawable.ic_light_rain;
+            case RAIN:
+                return R.drawable.ic_rain;
+            case SNOW:
+                return R.drawable.ic_snow;
+            case FOG:
+                return R.drawable.ic_fog;
+            case CLEAR:
+                return R.drawable.ic_clear;
+            case LIGHT_CLOUDS:
+                return R.drawable.ic_light_clouds;
+            case CLOUDS:
+                return R.drawable.ic_cloudy;
         }
         return -1;
     }
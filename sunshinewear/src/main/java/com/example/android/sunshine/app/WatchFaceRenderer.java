@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Typeface;
+
+import com.example.android.sunshineshared.ForecastPayload;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Draws the watch face.
+ *
+ * In interactive mode a frame is drawn every second, and only the seconds change from one to
+ * the next, so {@link #draw} allocates nothing: the time is written into a char array, the date
+ * is formatted once a day, the weather icon is decoded when the condition changes, and text is
+ * measured again only when the minute, the weather or the size of the face does.
+ *
+ * Everything but the time is drawn into a layer bitmap, kept for interactive mode and for
+ * ambient mode each, so a frame is one blit and one line of text.  A layer is drawn again only
+ * when what it shows changes: the weather, the date, the time zone, the text sizes, the size
+ * of the face, the background color or, for the ambient one, whether the screen is low-bit.
+ */
+class WatchFaceRenderer {
+    private static final Typeface NORMAL_TYPEFACE =
+            Typeface.create(Typeface.SANS_SERIF, Typeface.NORMAL);
+
+    private static final String DATE_FORMAT = "EEE, MMM d yyyy";
+
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+    private static final long MINUTES_PER_DAY = 24 * 60;
+
+    private final Resources mResources;
+
+    private final Paint mBackgroundPaint;
+    private final Paint mTextPaint;
+    private final Paint mDatePaint;
+    private final Paint mHighDegreesPaint;
+    private final Paint mLowDegreesPaint;
+    private final Paint mIconPaint = new Paint();
+    private final Paint mLowBitIconPaint = new Paint();
+    private final Paint mLayerPaint = new Paint();
+
+    private final float mYTimeOffset;
+    private final float mYDateOffset;
+    private final float mYLineOffset;
+    private final float mYIconOffset;
+    private final float mYDegreesOffset;
+    private final float mXMinOffset;
+    private final float mXSpaceOffset;
+
+    private final Calendar mCalendar = Calendar.getInstance();
+    private final DateFormat mDateFormat = new SimpleDateFormat(DATE_FORMAT, Locale.getDefault());
+    private TimeZone mTimeZone = TimeZone.getDefault();
+    private boolean mAmbient;
+    private boolean mLowBitAmbient;
+
+    // the static part of the face, for interactive and for ambient mode
+    private final Layer mInteractiveLayer = new Layer(false);
+    private final Layer mAmbientLayer = new Layer(true);
+
+    // HH:MM:SS, or HH:MM in ambient mode; the digits are written in place every frame
+    private final char[] mTimeText = new char[8];
+    private int mTimeLength;
+
+    // What the text was laid out for.  The digits of the face's font all have the same width,
+    // so the time stays centered through the minute without being measured again.
+    private long mLaidOutMinute = Long.MIN_VALUE;
+    private long mLaidOutDay = Long.MIN_VALUE;
+    private int mLaidOutWidth = -1;
+    private int mLaidOutHeight = -1;
+    private boolean mWeatherLaidOut;
+
+    private float mTimeX;
+    private String mDateText;
+    private float mDateX;
+    private float mLineX;
+    private float mLineWidth;
+
+    private ForecastPayload mForecast;
+    // the epoch day whose weather is shown
+    private long mWeatherDay = Long.MIN_VALUE;
+    private int mWeatherId = -1;
+    private Bitmap mWeatherIcon;
+    // the icon in white and transparent only, made from mWeatherIcon when a low-bit layer needs it
+    private Bitmap mLowBitWeatherIcon;
+    private String mHighTemperature = "loading";
+    private String mLowTemperature = "...";
+    private float mIconX;
+    private float mHighX;
+    private float mLowX;
+
+    WatchFaceRenderer(Resources resources) {
+        mResources = resources;
+        mYTimeOffset = resources.getDimension(R.dimen.digital_y_offset);
+        mYDateOffset = resources.getDimension(R.dimen.digital_y_date_offset);
+        mYLineOffset = resources.getDimension(R.dimen.digital_y_line_offset);
+        mYIconOffset = resources.getDimension(R.dimen.digital_y_icon_offset);
+        mYDegreesOffset = mYIconOffset + resources.getDimension(R.dimen.digital_y_degrees_offset);
+        mXMinOffset = resources.getDimension(R.dimen.digital_x_min_offset);
+        mXSpaceOffset = resources.getDimension(R.dimen.digital_x_space_offset);
+
+        mBackgroundPaint = new Paint();
+        mBackgroundPaint.setColor(resources.getColor(R.color.background));
+        mTextPaint = createTextPaint(resources.getColor(R.color.digital_text));
+        mDatePaint = createTextPaint(resources.getColor(R.color.digital_min_text));
+        mHighDegreesPaint = createTextPaint(resources.getColor(R.color.digital_text));
+        mLowDegreesPaint = createTextPaint(resources.getColor(R.color.digital_min_text));
+        // a low-bit screen shows no shades, so the icon's pixels are copied, never blended
+        mLowBitIconPaint.setFilterBitmap(false);
+        mLowBitIconPaint.setAntiAlias(false);
+        setTextSizes(false);
+    }
+
+    private static Paint createTextPaint(int textColor) {
+        Paint paint = new Paint();
+        paint.setColor(textColor);
+        paint.setTypeface(NORMAL_TYPEFACE);
+        paint.setAntiAlias(true);
+        return paint;
+    }
+
+    /**
+     * Picks the text sizes for a round or a square face.
+     */
+    void setTextSizes(boolean isRound) {
+        mTextPaint.setTextSize(mResources.getDimension(isRound
+                ? R.dimen.digital_time_text_size_round : R.dimen.digital_time_text_size));
+        mDatePaint.setTextSize(mResources.getDimension(isRound
+                ? R.dimen.digital_date_text_size_round : R.dimen.digital_date_text_size));
+        float degreesTextSize = mResources.getDimension(isRound
+                ? R.dimen.digital_degrees_text_size_round : R.dimen.digital_degrees_text_size);
+        mHighDegreesPaint.setTextSize(degreesTextSize);
+        mLowDegreesPaint.setTextSize(degreesTextSize);
+        invalidateLayout();
+        invalidateLayers();
+    }
+
+    void setAmbient(boolean ambient, boolean lowBitAmbient) {
+        mTextPaint.setAntiAlias(!(lowBitAmbient && ambient));
+        if (mLowBitAmbient != lowBitAmbient) {
+            mLowBitAmbient = lowBitAmbient;
+            mAmbientLayer.valid = false;
+        }
+        if (mAmbient != ambient) {
+            mAmbient = ambient;
+            // the seconds come and go
+            mLaidOutMinute = Long.MIN_VALUE;
+        }
+    }
+
+    void setBackgroundColor(int color) {
+        if (mBackgroundPaint.getColor() != color) {
+            mBackgroundPaint.setColor(color);
+            // the ambient background is always black
+            mInteractiveLayer.valid = false;
+        }
+    }
+
+    void setTimeZone(TimeZone timeZone) {
+        mTimeZone = timeZone;
+        mCalendar.setTimeZone(timeZone);
+        mDateFormat.setTimeZone(timeZone);
+        mWeatherDay = Long.MIN_VALUE;
+        invalidateLayout();
+        invalidateLayers();
+    }
+
+    /**
+     * Sets the forecast to take the weather from.  The face shows the day it is in its time
+     * zone, and moves on to the next day of the forecast at midnight.
+     */
+    void setForecast(ForecastPayload forecast) {
+        mForecast = forecast;
+        mWeatherDay = Long.MIN_VALUE;
+    }
+
+    private void showWeatherFor(long day) {
+        mWeatherDay = day;
+        if (mForecast == null) {
+            // still loading
+            return;
+        }
+        int index = mForecast.indexOfDay((int) day);
+        if (index == -1) {
+            setWeather(-1, "", "");
+            return;
+        }
+        setWeather(mForecast.getWeatherId(index),
+                formatTemperature(mForecast.getHigh(index)),
+                formatTemperature(mForecast.getLow(index)));
+    }
+
+    private String formatTemperature(double celsius) {
+        return mResources.getString(R.string.format_temperature,
+                ForecastPayload.toDisplayTemperature(celsius, mForecast.metric));
+    }
+
+    /**
+     * Sets the weather to show, decoding its icon if the condition changed.
+     */
+    private void setWeather(int weatherId, String highTemperature, String lowTemperature) {
+        if (weatherId != mWeatherId || mWeatherIcon == null) {
+            mWeatherId = weatherId;
+            int iconResource = MyWatchFace.getIconResourceForWeatherCondition(weatherId);
+            mWeatherIcon = iconResource == -1
+                    ? null : BitmapFactory.decodeResource(mResources, iconResource);
+            mLowBitWeatherIcon = null;
+        }
+        mHighTemperature = highTemperature;
+        mLowTemperature = lowTemperature;
+        mWeatherLaidOut = false;
+        invalidateLayers();
+    }
+
+    private void invalidateLayout() {
+        mLaidOutMinute = Long.MIN_VALUE;
+        mLaidOutDay = Long.MIN_VALUE;
+        mWeatherLaidOut = false;
+    }
+
+    private void invalidateLayers() {
+        mInteractiveLayer.valid = false;
+        mAmbientLayer.valid = false;
+    }
+
+    /**
+     * Frees the layer bitmaps.  They are drawn again if the face is.
+     */
+    void release() {
+        mInteractiveLayer.release();
+        mAmbientLayer.release();
+    }
+
+    void draw(Canvas canvas, Rect bounds, long now) {
+        int width = bounds.width();
+        int height = bounds.height();
+        if (width != mLaidOutWidth) {
+            mLaidOutWidth = width;
+            invalidateLayout();
+            invalidateLayers();
+        }
+        if (height != mLaidOutHeight) {
+            mLaidOutHeight = height;
+            invalidateLayers();
+        }
+
+        long localMillis = now + mTimeZone.getOffset(now);
+        long minute = floorDiv(localMillis, MINUTE_IN_MILLIS);
+        int seconds = (int) ((localMillis - minute * MINUTE_IN_MILLIS) / 1000);
+        long day = floorDiv(minute, MINUTES_PER_DAY);
+        if (day != mWeatherDay) {
+            showWeatherFor(day);
+        }
+        if (minute != mLaidOutMinute) {
+            layOutTime(minute, seconds, width);
+            if (day != mLaidOutDay) {
+                layOutDate(now, width);
+                mLaidOutDay = day;
+                invalidateLayers();
+            }
+        }
+        if (!mWeatherLaidOut) {
+            layOutWeather(width);
+        }
+
+        Layer layer = mAmbient ? mAmbientLayer : mInteractiveLayer;
+        if (!layer.valid) {
+            layer.draw(width, height);
+        }
+        canvas.drawBitmap(layer.bitmap, 0, 0, mLayerPaint);
+
+        // Draw HH:MM in ambient mode or HH:MM:SS in interactive mode.
+        if (!mAmbient) {
+            writeTwoDigits(seconds, mTimeLength - 2);
+        }
+        canvas.drawText(mTimeText, 0, mTimeLength, mTimeX, mYTimeOffset, mTextPaint);
+    }
+
+    /**
+     * Draws everything but the time.
+     */
+    private void drawStaticPart(Canvas canvas, int width, int height, boolean ambient,
+            boolean lowBit) {
+        // Draw the background.
+        if (ambient) {
+            canvas.drawColor(Color.BLACK);
+        } else {
+            canvas.drawRect(0, 0, width, height, mBackgroundPaint);
+        }
+
+        canvas.drawText(mDateText, mDateX, mYDateOffset, mDatePaint);
+        canvas.drawLine(mLineX, mYLineOffset, mLineX + mLineWidth, mYLineOffset, mDatePaint);
+
+        if (mWeatherIcon != null) {
+            if (lowBit) {
+                if (mLowBitWeatherIcon == null) {
+                    mLowBitWeatherIcon = toLowBit(mWeatherIcon);
+                }
+                canvas.drawBitmap(mLowBitWeatherIcon, mIconX, mYIconOffset, mLowBitIconPaint);
+            } else {
+                canvas.drawBitmap(mWeatherIcon, mIconX, mYIconOffset, mIconPaint);
+            }
+        }
+        canvas.drawText(mHighTemperature, mHighX, mYDegreesOffset, mHighDegreesPaint);
+        canvas.drawText(mLowTemperature, mLowX, mYDegreesOffset, mLowDegreesPaint);
+    }
+
+    /**
+     * @return the icon with every pixel that is at least half opaque white, and every other
+     * transparent
+     */
+    private static Bitmap toLowBit(Bitmap icon) {
+        int width = icon.getWidth();
+        int height = icon.getHeight();
+        int[] pixels = new int[width * height];
+        icon.getPixels(pixels, 0, width, 0, 0, width, height);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = Color.alpha(pixels[i]) >= 0x80 ? Color.WHITE : Color.TRANSPARENT;
+        }
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private void setStaticTextAntiAlias(boolean antiAlias) {
+        mDatePaint.setAntiAlias(antiAlias);
+        mHighDegreesPaint.setAntiAlias(antiAlias);
+        mLowDegreesPaint.setAntiAlias(antiAlias);
+    }
+
+    /**
+     * The static part of the face for one mode, drawn offscreen.
+     */
+    private class Layer {
+        final boolean ambient;
+        Bitmap bitmap;
+        Canvas canvas;
+        boolean valid;
+
+        Layer(boolean ambient) {
+            this.ambient = ambient;
+        }
+
+        void draw(int width, int height) {
+            if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                canvas = new Canvas(bitmap);
+            }
+            // a low-bit ambient screen shows no shades, so its text isn't anti-aliased either
+            boolean lowBit = ambient && mLowBitAmbient;
+            if (lowBit) {
+                setStaticTextAntiAlias(false);
+            }
+            drawStaticPart(canvas, width, height, ambient, lowBit);
+            if (lowBit) {
+                setStaticTextAntiAlias(true);
+            }
+            valid = true;
+        }
+
+        void release() {
+            if (bitmap != null) {
+                bitmap.recycle();
+                bitmap = null;
+                canvas = null;
+            }
+            valid = false;
+        }
+    }
+
+    private void layOutTime(long minute, int seconds, int width) {
+        int hourOfDay = (int) (floorDiv(minute, 60) % 24);
+        int hours = hourOfDay % 12 == 0 ? 12 : hourOfDay;
+        writeTwoDigits(hours, 0);
+        mTimeText[2] = ':';
+        writeTwoDigits((int) (minute % 60), 3);
+        if (mAmbient) {
+            mTimeLength = 5;
+        } else {
+            mTimeText[5] = ':';
+            writeTwoDigits(seconds, 6);
+            mTimeLength = 8;
+        }
+        mTimeX = (int) (width - mTextPaint.measureText(mTimeText, 0, mTimeLength)) / 2;
+        mLaidOutMinute = minute;
+    }
+
+    private void layOutDate(long now, int width) {
+        mCalendar.setTimeInMillis(now);
+        mDateText = mDateFormat.format(mCalendar.getTime()).toUpperCase();
+        mDateX = (int) (width - mDatePaint.measureText(mDateText)) / 2;
+        mLineX = (width - width / 5) / 2;
+        mLineWidth = width / 5;
+    }
+
+    private void layOutWeather(int width) {
+        int iconWidth = mWeatherIcon == null ? 0 : mWeatherIcon.getWidth();
+        mIconX = (width - iconWidth) / 2 - iconWidth + 10;
+        mHighX = mIconX + iconWidth + mXMinOffset;
+        mLowX = mHighX + mXSpaceOffset + mHighDegreesPaint.measureText(mHighTemperature);
+        mWeatherLaidOut = true;
+    }
+
+    private void writeTwoDigits(int value, int position) {
+        mTimeText[position] = (char) ('0' + value / 10);
+        mTimeText[position + 1] = (char) ('0' + value % 10);
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? quotient - 1 : quotient;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Spaces out the watch face's requests for weather, so a face that is restarted or shown over
+ * and over while its forecast is stale asks the phone once rather than every time.  The time of
+ * the last request outlives the face.
+ */
+class WeatherRequestThrottle {
+    private static final String PREFS_NAME = "weather_requests";
+    private static final String KEY_LAST_REQUEST = "last_request";
+    private static final long MINUTE_IN_MILLIS = 60 * 1000;
+
+    private final SharedPreferences mPrefs;
+    private final long mIntervalMillis;
+
+    WeatherRequestThrottle(Context context) {
+        this(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE),
+                context.getResources().getInteger(R.integer.weather_request_interval_minutes)
+                        * MINUTE_IN_MILLIS);
+    }
+
+    WeatherRequestThrottle(SharedPreferences prefs, long intervalMillis) {
+        mPrefs = prefs;
+        mIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * Takes the request slot if a request may be sent now.
+     *
+     * @return whether the request may be sent
+     */
+    boolean tryAcquire(long now) {
+        long lastRequest = mPrefs.getLong(KEY_LAST_REQUEST, 0);
+        // a clock set back would otherwise hold requests off until it caught up
+        if (now >= lastRequest && now - lastRequest < mIntervalMillis) {
+            return false;
+        }
+        mPrefs.edit().putLong(KEY_LAST_REQUEST, now).apply();
+        return true;
+    }
+}